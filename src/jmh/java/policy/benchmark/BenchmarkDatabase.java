@@ -0,0 +1,75 @@
+package policy.benchmark;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilder;
+import org.neo4j.harness.Neo4jBuilders;
+import policy.schema.PolicySchema;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An embedded database for the benchmarks, seeded from the cypher fixtures the tests use
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+
+    private final Neo4j neo4j;
+
+    private BenchmarkDatabase(Neo4j neo4j) {
+        this.neo4j = neo4j;
+    }
+
+    /**
+     * Starts an embedded database with the procedures registered and the fixtures loaded
+     * @param procedures Procedure classes to register
+     * @param fixtures Classpath resources with the cypher to seed the database with, e.g. /documents.cypher
+     */
+    public static BenchmarkDatabase start(Class<?>[] procedures, String... fixtures) {
+        Neo4jBuilder builder = Neo4jBuilders.newInProcessBuilder();
+        for (Class<?> procedure : procedures) {
+            builder = builder.withProcedure(procedure);
+        }
+        for (String fixture : fixtures) {
+            builder = builder.withFixture(resource(fixture));
+        }
+        return new BenchmarkDatabase(builder.build());
+    }
+
+    public GraphDatabaseService db() {
+        return neo4j.defaultDatabaseService();
+    }
+
+    /**
+     * Creates the constraints and indexes the ingest relies on, as policy.ensureSchema does
+     */
+    public void ensureSchema() {
+        for (PolicySchema.SchemaIndex index : PolicySchema.INDEXES) {
+            try (Transaction tx = db().beginTx()) {
+                if (!index.exists(tx)) index.create(tx);
+                tx.commit();
+            }
+        }
+        try (Transaction tx = db().beginTx()) {
+            tx.schema().awaitIndexesOnline(5, TimeUnit.MINUTES);
+        }
+    }
+
+    public static String resource(String name) {
+        try (InputStream in = BenchmarkDatabase.class.getResourceAsStream(name)) {
+            if (in == null) throw new IllegalArgumentException("Missing benchmark resource " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        neo4j.close();
+    }
+}
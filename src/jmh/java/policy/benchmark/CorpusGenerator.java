@@ -0,0 +1,214 @@
+package policy.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Generates synthetic document json in the shape handleCreateDocumentNodesFromJson expects. Topics,
+ * entities and references are drawn from Zipfian distributions, so a few topics and entities become hubs
+ * and a few documents are referenced by most of the corpus, like the real crawl.
+ * The same seed and config always generate the same corpus.
+ */
+public class CorpusGenerator {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String[] DOC_TYPES = {"DoDD", "DoDI", "DoDM", "AR", "AFI", "OPNAVINST", "EO", "AGO"};
+
+    public static class Config {
+        public long seed = 42;
+        public int topics = 10_000;
+        public double topicSkew = 1.0;
+        public int topicsPerDocument = 5;
+        public int entities = 5_000;
+        public double entitySkew = 1.1;
+        public int entitiesPerDocument = 8;
+        public double referenceSkew = 1.2;
+        public int referencesPerDocument = 6;
+        // Share of references to documents that are not in the corpus, which become UKN_Document nodes
+        public double unknownReferenceRate = 0.2;
+
+        /**
+         * Sets the field named key, e.g. topicSkew=1.3
+         */
+        public void set(String key, String value) {
+            try {
+                java.lang.reflect.Field field = Config.class.getField(key);
+                if (field.getType() == long.class) field.setLong(this, Long.parseLong(value));
+                else if (field.getType() == int.class) field.setInt(this, Integer.parseInt(value));
+                else field.setDouble(this, Double.parseDouble(value));
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                throw new IllegalArgumentException("Unknown corpus setting " + key, e);
+            }
+        }
+    }
+
+    private final Config config;
+    private final long documents;
+    private final Random random;
+    private final Zipf topicDistribution;
+    private final Zipf entityDistribution;
+    private final Zipf referenceDistribution;
+
+    public CorpusGenerator(Config config, long documents) {
+        this.config = config;
+        this.documents = documents;
+        this.random = new Random(config.seed);
+        this.topicDistribution = new Zipf(config.topics, config.topicSkew);
+        this.entityDistribution = new Zipf(config.entities, config.entitySkew);
+        this.referenceDistribution = new Zipf((int) Math.min(documents, Integer.MAX_VALUE), config.referenceSkew);
+    }
+
+    public static String docId(long i) {
+        return refName(i) + ".pdf_0";
+    }
+
+    public static String refName(long i) {
+        return DOC_TYPES[(int) (i % DOC_TYPES.length)] + " " + docNum(i);
+    }
+
+    private static String docNum(long i) {
+        return String.format("%d-%02d", i / DOC_TYPES.length / 100, i / DOC_TYPES.length % 100);
+    }
+
+    /**
+     * Lazily generates the corpus, one document json per element
+     */
+    public Iterator<String> documents() {
+        return new Iterator<>() {
+            private long next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < documents;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return document(next++);
+            }
+        };
+    }
+
+    /**
+     * Writes the corpus as json lines, one document per line
+     */
+    public void writeJsonLines(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            Iterator<String> it = documents();
+            while (it.hasNext()) {
+                writer.write(it.next());
+                writer.newLine();
+            }
+        }
+    }
+
+    private String document(long i) {
+        ObjectNode doc = OBJECT_MAPPER.createObjectNode();
+        String refName = refName(i);
+        String docType = DOC_TYPES[(int) (i % DOC_TYPES.length)];
+
+        doc.put("id", docId(i));
+        doc.put("doc_num", docNum(i));
+        doc.put("doc_type", docType);
+        doc.put("filename", refName + ".pdf");
+        doc.put("title", "Synthetic " + refName);
+        doc.put("display_title_s", refName + " Synthetic " + refName);
+        doc.put("display_org_s", "Synthetic Org " + (i % 20));
+        doc.put("display_doc_type_s", "Document");
+        doc.put("access_timestamp_dt", "2021-04-08T15:55:09");
+        doc.put("publication_date_dt", "2020-01-01T00:00:00");
+        doc.put("crawler_used_s", "synthetic");
+        doc.put("source_fqdn_s", "example.mil");
+        doc.put("source_page_url_s", "https://example.mil/" + i);
+        doc.put("download_url_s", "https://example.mil/" + i + ".pdf");
+        doc.put("cac_login_required_b", false);
+        doc.put("summary_30", "Synthetic summary for " + refName);
+        doc.put("type", "document");
+        doc.put("page_count", 1 + random.nextInt(200));
+        doc.put("init_date", "NA");
+        doc.put("change_date", "NA");
+        doc.put("author", "NA");
+        doc.put("signature", "NA");
+        doc.put("subject", "NA");
+        doc.put("classification", "NA");
+        doc.put("group_s", docId(i));
+        doc.put("pagerank_r", random.nextDouble() / 1000);
+        doc.put("kw_doc_score_r", random.nextDouble());
+        doc.put("version_hash_s", Long.toHexString(config.seed * 31 + i));
+        doc.put("is_revoked_b", false);
+
+        ArrayNode keywords = doc.putArray("keyw_5");
+        for (int k = 0; k < 5; k++) keywords.add("keyword " + topicDistribution.sample(random));
+
+        ArrayNode references = doc.putArray("ref_list");
+        int referenceCount = random.nextInt(2 * config.referencesPerDocument + 1);
+        for (int r = 0; r < referenceCount; r++) {
+            int rank = referenceDistribution.sample(random);
+            references.add(random.nextDouble() < config.unknownReferenceRate ? "Unknown " + rank : refName(rank));
+        }
+
+        // Topic nodes are named after the topics_rs values, so use the array form for the names to repeat across documents
+        ArrayNode topics = doc.putArray("topics_rs");
+        for (int rank : distinctSamples(topicDistribution, config.topicsPerDocument)) {
+            topics.add("topic " + rank);
+        }
+
+        ObjectNode entities = doc.putObject("entities");
+        ObjectNode entityPars = entities.putObject("entityPars");
+        ObjectNode entityCounts = entities.putObject("entityCounts");
+        for (int rank : distinctSamples(entityDistribution, config.entitiesPerDocument)) {
+            String name = "Entity " + rank;
+            int count = 1 + random.nextInt(10);
+            ArrayNode pars = entityPars.putArray(name);
+            for (int p = 0; p < count; p++) pars.add(p);
+            entityCounts.put(name, count);
+        }
+
+        return doc.toString();
+    }
+
+    private Set<Integer> distinctSamples(Zipf distribution, int count) {
+        Set<Integer> samples = new LinkedHashSet<>();
+        int limit = Math.min(count, distribution.size());
+        // The head of a skewed distribution repeats often, bound the attempts
+        for (int attempts = 0; samples.size() < limit && attempts < limit * 20; attempts++) {
+            samples.add(distribution.sample(random));
+        }
+        return samples;
+    }
+
+    /**
+     * Samples ranks 0..n-1 with probability proportional to 1 / (rank + 1)^skew
+     */
+    static class Zipf {
+        private final double[] cdf;
+
+        Zipf(int n, double skew) {
+            cdf = new double[Math.max(n, 1)];
+            double total = 0;
+            for (int i = 0; i < cdf.length; i++) {
+                total += 1.0 / Math.pow(i + 1, skew);
+                cdf[i] = total;
+            }
+            for (int i = 0; i < cdf.length; i++) cdf[i] /= total;
+        }
+
+        int size() {
+            return cdf.length;
+        }
+
+        int sample(Random random) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(index < 0 ? -index - 1 : index, cdf.length - 1);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package policy.benchmark;
+
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+import policy.search.GetMainGraphView;
+import policy.utils.Settings;
+import policy.utils.Util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * policy.getMainGraphView over the fakeGraph.cypher fixture, with and without the result cache
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphViewBenchmark {
+
+    private static final String QUERY = "CALL policy.getMainGraphView($docIds) YIELD nodes, relationships RETURN nodes, relationships";
+
+    @Param({"0", "256"})
+    public int cacheSize;
+
+    private BenchmarkDatabase database;
+    private Map<String, Object> params;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Read by the cache extension when the database starts
+        System.setProperty(Settings.GRAPH_VIEW_CACHE_SIZE, String.valueOf(cacheSize));
+        database = BenchmarkDatabase.start(new Class<?>[]{GetMainGraphView.class}, "/fakeGraph.cypher");
+        params = Util.map("docIds", List.of("AGO 1976-02.pdf_0", "Test 1.pdf_0"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+        System.clearProperty(Settings.GRAPH_VIEW_CACHE_SIZE);
+    }
+
+    @Benchmark
+    public Object getMainGraphView() {
+        try (Transaction tx = database.db().beginTx()) {
+            Result result = tx.execute(QUERY, params);
+            return result.next();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package policy.benchmark;
+
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.NullLog;
+import org.openjdk.jmh.annotations.*;
+import policy.ingest.CreateNodesFromJson;
+import policy.utils.Util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Document and org ingest, one document or org file per transaction, against the documents.cypher fixture
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IngestBenchmark {
+
+    private static final String DOC_ID = "AGO 1976-02.pdf_0";
+
+    private BenchmarkDatabase database;
+    private CreateNodesFromJson ingest;
+    private String documentJson;
+    private String orgsJson;
+    private long documentCount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.start(new Class<?>[0], "/documents.cypher");
+        database.ensureSchema();
+        ingest = new CreateNodesFromJson();
+        documentJson = BenchmarkDatabase.resource("/document.json");
+        orgsJson = BenchmarkDatabase.resource("/orgs.json");
+
+        // The unchanged document benchmark re-ingests this one
+        try (Transaction tx = database.db().beginTx()) {
+            ingest.handleCreateDocumentNodesFromJson(documentJson, tx, NullLog.getInstance());
+            tx.commit();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    /**
+     * A new document each call, sharing its topics and entities with every other one
+     */
+    @Benchmark
+    public Util.Outgoing createDocument() {
+        String json = documentJson.replace(DOC_ID, String.format("Benchmark %d.pdf_0", documentCount++));
+        try (Transaction tx = database.db().beginTx()) {
+            Util.Outgoing out = ingest.handleCreateDocumentNodesFromJson(json, tx, NullLog.getInstance());
+            tx.commit();
+            return out;
+        }
+    }
+
+    /**
+     * The same document again, which is skipped by its version hash
+     */
+    @Benchmark
+    public Util.Outgoing reingestUnchangedDocument() {
+        try (Transaction tx = database.db().beginTx()) {
+            Util.Outgoing out = ingest.handleCreateDocumentNodesFromJson(documentJson, tx, NullLog.getInstance());
+            tx.commit();
+            return out;
+        }
+    }
+
+    /**
+     * The org file, which after the first call only updates existing org nodes
+     */
+    @Benchmark
+    public Util.Outgoing createOrgs() {
+        try (Transaction tx = database.db().beginTx()) {
+            Util.Outgoing out = ingest.handleCreateOrgNodesFromJson(orgsJson, tx, NullLog.getInstance());
+            tx.commit();
+            return out;
+        }
+    }
+}
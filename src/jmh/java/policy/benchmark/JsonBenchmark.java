@@ -0,0 +1,45 @@
+package policy.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.*;
+import policy.ingest.DocumentJson;
+import policy.utils.JsonUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a document json into a tree, as the org, role and entity ingest does, against the
+ * streaming parse the document ingest uses
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    private String documentJson;
+    private String orgsJson;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        documentJson = BenchmarkDatabase.resource("/document.json");
+        orgsJson = BenchmarkDatabase.resource("/orgs.json");
+    }
+
+    @Benchmark
+    public JsonNode loadDocumentJson() throws Exception {
+        return JsonUtils.loadJson(documentJson, true);
+    }
+
+    @Benchmark
+    public DocumentJson parseDocumentJson() throws Exception {
+        return DocumentJson.parse(documentJson);
+    }
+
+    @Benchmark
+    public JsonNode loadOrgsJson() throws Exception {
+        return JsonUtils.loadJson(orgsJson, true);
+    }
+}
@@ -0,0 +1,85 @@
+package policy.benchmark;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.NullLog;
+import org.openjdk.jmh.annotations.*;
+import policy.utils.Util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Util.createNonDuplicateRelationship between a document and an entity that is already mentioned
+ * by degree other documents, as happens for the hub entities and topics in the real corpus.
+ * Each call runs in a transaction that is rolled back, so the graph doesn't grow.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RelationshipDedupeBenchmark {
+
+    private static final RelationshipType MENTIONS = RelationshipType.withName("MENTIONS");
+
+    @Param({"10", "1000", "100000"})
+    public int degree;
+
+    private BenchmarkDatabase database;
+    private long hubId;
+    private long mentioningDocId;
+    private long newDocId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.start(new Class<?>[0], "/fakeGraph.cypher");
+        try (Transaction tx = database.db().beginTx()) {
+            hubId = tx.findNode(Label.label("Entity"), "name", "E Test").getId();
+            newDocId = tx.createNode(Label.label("Document")).getId();
+            tx.commit();
+        }
+
+        // Commit the hub's mentions in batches to keep the transactions small
+        Node lastDoc = null;
+        for (int created = 0; created < degree; ) {
+            try (Transaction tx = database.db().beginTx()) {
+                Node hub = tx.getNodeById(hubId);
+                for (int i = 0; i < 10_000 && created < degree; i++, created++) {
+                    lastDoc = tx.createNode(Label.label("Document"));
+                    lastDoc.createRelationshipTo(hub, MENTIONS);
+                }
+                mentioningDocId = lastDoc.getId();
+                tx.commit();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    /**
+     * The document already mentions the hub, so nothing is created
+     */
+    @Benchmark
+    public Relationship existingMention() {
+        try (Transaction tx = database.db().beginTx()) {
+            return Util.createNonDuplicateRelationship(tx.getNodeById(mentioningDocId), tx.getNodeById(hubId), MENTIONS, NullLog.getInstance());
+        }
+    }
+
+    /**
+     * The document doesn't mention the hub yet, so the check must prove there is no relationship
+     */
+    @Benchmark
+    public Relationship newMention() {
+        try (Transaction tx = database.db().beginTx()) {
+            return Util.createNonDuplicateRelationship(tx.getNodeById(newDocId), tx.getNodeById(hubId), MENTIONS, NullLog.getInstance());
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package policy.benchmark;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.NullLog;
+import policy.ingest.CreateNodesFromJson;
+import policy.ingest.CreateUnknownDocsAndReferences;
+import policy.search.GetMainGraphView;
+import policy.utils.IngestCache;
+import policy.utils.Settings;
+import policy.utils.Util;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Ingests synthetic corpora of increasing size into a fresh embedded database each, then runs reference
+ * linking and graph view queries against it, recording docs/sec, latency percentiles and the peak heap of each phase per size.
+ * Run with: mvn -P benchmark -DskipTests test-compile exec:exec@scaling -Dscaling.args="sizes=10000,100000"
+ * Any CorpusGenerator.Config field can be passed as key=value, e.g. topicSkew=1.3.
+ */
+public class ScalingHarness {
+
+    public static void main(String[] args) throws IOException {
+        List<Long> sizes = List.of(10_000L, 100_000L, 1_000_000L);
+        int batchSize = 1000;
+        int graphViewQueries = 1000;
+        int graphViewDocuments = 10;
+        Path output = Paths.get("target", "scaling-results.csv");
+        CorpusGenerator.Config config = new CorpusGenerator.Config();
+
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2) throw new IllegalArgumentException("Expected key=value, got " + arg);
+            switch (keyValue[0]) {
+                case "sizes":
+                    sizes = Arrays.stream(keyValue[1].split(",")).map(Long::parseLong).collect(Collectors.toList());
+                    break;
+                case "batchSize":
+                    batchSize = Integer.parseInt(keyValue[1]);
+                    break;
+                case "graphViewQueries":
+                    graphViewQueries = Integer.parseInt(keyValue[1]);
+                    break;
+                case "graphViewDocuments":
+                    graphViewDocuments = Integer.parseInt(keyValue[1]);
+                    break;
+                case "output":
+                    output = Paths.get(keyValue[1]);
+                    break;
+                default:
+                    config.set(keyValue[0], keyValue[1]);
+            }
+        }
+
+        // Measure the traversal rather than the result cache
+        System.setProperty(Settings.GRAPH_VIEW_CACHE_SIZE, "0");
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output))) {
+            out.println(Result.CSV_HEADER);
+            for (long size : sizes) {
+                Result result = run(size, batchSize, graphViewQueries, graphViewDocuments, config);
+                System.out.println(result);
+                out.println(result.toCsv());
+                out.flush();
+            }
+        }
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+
+    private static Result run(long size, int batchSize, int graphViewQueries, int graphViewDocuments, CorpusGenerator.Config config) {
+        Result result = new Result(size);
+        resetPeakHeap();
+
+        try (BenchmarkDatabase database = BenchmarkDatabase.start(new Class<?>[]{GetMainGraphView.class})) {
+            database.ensureSchema();
+
+            // Ingest, the same way policy.createDocumentNodesFromJsonBatch does but timing every document
+            CreateNodesFromJson ingest = new CreateNodesFromJson();
+            Iterator<String> documents = new CorpusGenerator(config, size).documents();
+            IngestCache cache = new IngestCache();
+            long[] latencies = new long[(int) size];
+            int ingested = 0;
+            long ingestStart = System.nanoTime();
+            while (documents.hasNext()) {
+                try (Transaction tx = database.db().beginTx()) {
+                    for (int i = 0; i < batchSize && documents.hasNext(); i++) {
+                        String json = documents.next();
+                        long start = System.nanoTime();
+                        ingest.handleCreateDocumentNodesFromJson(json, tx, NullLog.getInstance(), cache);
+                        latencies[ingested++] = System.nanoTime() - start;
+                    }
+                    tx.commit();
+                    cache.endTransaction();
+                }
+            }
+            result.ingestSeconds = (System.nanoTime() - ingestStart) / 1e9;
+            result.ingestLatencies = Percentiles.of(latencies);
+            result.ingestPeakHeapMb = peakHeapMb();
+
+            try (Transaction tx = database.db().beginTx()) {
+                result.maxTopicDegree = maxDegree(tx, "Topic");
+                result.maxEntityDegree = maxDegree(tx, "Entity");
+            }
+
+            // Reference linking
+            resetPeakHeap();
+            CreateUnknownDocsAndReferences linking = new CreateUnknownDocsAndReferences();
+            linking.db = database.db();
+            linking.log = NullLog.getInstance();
+            long linkingStart = System.nanoTime();
+            try (Stream<Util.ChunkProgress> chunks = linking.createUKNDocumentNodesAndAllReferencesInChunks(10_000, 0)) {
+                chunks.forEach(chunk -> {});
+            }
+            result.linkingSeconds = (System.nanoTime() - linkingStart) / 1e9;
+            result.linkingPeakHeapMb = peakHeapMb();
+
+            // Graph views over random doc_id sets
+            resetPeakHeap();
+            Random random = new Random(config.seed);
+            long[] queryLatencies = new long[graphViewQueries];
+            for (int q = 0; q < graphViewQueries; q++) {
+                List<String> docIds = new ArrayList<>();
+                for (int d = 0; d < graphViewDocuments; d++) {
+                    docIds.add(CorpusGenerator.docId((long) (random.nextDouble() * size)));
+                }
+                long start = System.nanoTime();
+                try (Transaction tx = database.db().beginTx()) {
+                    tx.execute("CALL policy.getMainGraphView($docIds)", Util.map("docIds", docIds)).accept(row -> true);
+                }
+                queryLatencies[q] = System.nanoTime() - start;
+            }
+            result.graphViewLatencies = Percentiles.of(queryLatencies);
+            result.graphViewPeakHeapMb = peakHeapMb();
+        }
+        return result;
+    }
+
+    private static long maxDegree(Transaction tx, String label) {
+        long max = 0;
+        try (ResourceIterator<Node> nodes = tx.findNodes(Label.label(label))) {
+            while (nodes.hasNext()) max = Math.max(max, nodes.next().getDegree());
+        }
+        return max;
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * The sum of the heap pools' peaks since the last reset, an upper bound on the peak heap used
+     */
+    private static long peakHeapMb() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak / (1024 * 1024);
+    }
+
+    static class Percentiles {
+        final double p50Ms;
+        final double p95Ms;
+        final double p99Ms;
+        final double maxMs;
+
+        private Percentiles(long[] sortedNanos) {
+            p50Ms = at(sortedNanos, 0.50);
+            p95Ms = at(sortedNanos, 0.95);
+            p99Ms = at(sortedNanos, 0.99);
+            maxMs = sortedNanos.length == 0 ? 0 : sortedNanos[sortedNanos.length - 1] / 1e6;
+        }
+
+        static Percentiles of(long[] nanos) {
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            return new Percentiles(sorted);
+        }
+
+        private static double at(long[] sorted, double percentile) {
+            if (sorted.length == 0) return 0;
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(index, 0)] / 1e6;
+        }
+    }
+
+    static class Result {
+        static final String CSV_HEADER = "documents,ingest_docs_per_sec,ingest_p50_ms,ingest_p95_ms,ingest_p99_ms,ingest_max_ms,ingest_peak_heap_mb," +
+                "max_topic_degree,max_entity_degree,linking_seconds,linking_peak_heap_mb," +
+                "graph_view_p50_ms,graph_view_p95_ms,graph_view_p99_ms,graph_view_max_ms,graph_view_peak_heap_mb";
+
+        final long documents;
+        double ingestSeconds;
+        Percentiles ingestLatencies;
+        long ingestPeakHeapMb;
+        long maxTopicDegree;
+        long maxEntityDegree;
+        double linkingSeconds;
+        long linkingPeakHeapMb;
+        Percentiles graphViewLatencies;
+        long graphViewPeakHeapMb;
+
+        Result(long documents) {
+            this.documents = documents;
+        }
+
+        double docsPerSecond() {
+            return ingestSeconds == 0 ? 0 : documents / ingestSeconds;
+        }
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%d,%.1f,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%.1f,%d,%.3f,%.3f,%.3f,%.3f,%d",
+                    documents, docsPerSecond(), ingestLatencies.p50Ms, ingestLatencies.p95Ms, ingestLatencies.p99Ms, ingestLatencies.maxMs, ingestPeakHeapMb,
+                    maxTopicDegree, maxEntityDegree, linkingSeconds, linkingPeakHeapMb,
+                    graphViewLatencies.p50Ms, graphViewLatencies.p95Ms, graphViewLatencies.p99Ms, graphViewLatencies.maxMs, graphViewPeakHeapMb);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%,d documents: ingest %.1f docs/sec (p50 %.3f ms, p99 %.3f ms, peak heap %d MB, max topic degree %d, max entity degree %d), " +
+                            "linking %.1f s (peak heap %d MB), graph view p50 %.3f ms p99 %.3f ms (peak heap %d MB)",
+                    documents, docsPerSecond(), ingestLatencies.p50Ms, ingestLatencies.p99Ms, ingestPeakHeapMb, maxTopicDegree, maxEntityDegree,
+                    linkingSeconds, linkingPeakHeapMb, graphViewLatencies.p50Ms, graphViewLatencies.p99Ms, graphViewPeakHeapMb);
+        }
+    }
+}
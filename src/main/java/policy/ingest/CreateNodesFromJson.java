@@ -1,28 +1,45 @@
 package policy.ingest;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.*;
 import org.neo4j.graphdb.*;
+import policy.schema.PolicySchema;
+import policy.utils.IngestCache;
+import policy.utils.IngestMetrics;
+import policy.utils.Settings;
 import policy.utils.Util;
+import org.neo4j.internal.helpers.collection.Iterables;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.util.Map.entry;
 import static java.util.Objects.isNull;
-import static policy.utils.JsonUtils.getStringListFromJsonArray;
 import static policy.utils.JsonUtils.loadJson;
 import static policy.utils.Util.setProperty;
 
-import java.io.StringWriter;
-import java.io.PrintWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
 
 public class CreateNodesFromJson {
 
     private final static String nodesCreatedString = "nodesCreated";
     private final static String propertiesSetString = "propertiesSet";
     private final static String relationshipsCreatedString = "relationshipsCreated";
+    private final static int READ_BUFFER_SIZE = 1 << 16;
+    private final static int MAX_BATCH_ATTEMPTS = 5;
 
     // This gives us a log instance that outputs messages to the
     // standard log, normally found under `data/log/console.log`
@@ -39,6 +56,8 @@ public class CreateNodesFromJson {
     @Procedure(value = "policy.createDocumentNodesFromJson", mode = Mode.WRITE)
     @Description("Takes in a document json and creates the nodes and relationships based on the content.")
     public Stream<Util.Outgoing> createDocumentNodesFromJson(@Name("json") String json) {
+        PolicySchema.checkIngestSchema(db, log);
+        long start = IngestMetrics.start();
         try (Transaction tx = db.beginTx())
         {
             Util.Outgoing out = handleCreateDocumentNodesFromJson(json, tx, log);
@@ -46,9 +65,309 @@ public class CreateNodesFromJson {
             return Stream.of(out);
         } catch (Exception e) {
             throw new RuntimeException("Error creating node from json", e);
+        } finally {
+            IngestMetrics.record("policy.createDocumentNodesFromJson", start);
         }
     }
 
+    /**
+     * This procedure takes a list of document jsons and creates the nodes associated with each json,
+     * committing the transaction every batchSize documents instead of once per document
+     * @param jsons The json strings for the documents to be ingested
+     * @param batchSize The number of documents to ingest per transaction
+     * @return Stream
+     */
+    @Procedure(value = "policy.createDocumentNodesFromJsonBatch", mode = Mode.WRITE)
+    @Description("Takes in a list of document jsons and creates the nodes and relationships, committing every batchSize documents.")
+    public Stream<Util.Outgoing> createDocumentNodesFromJsonBatch(@Name("jsons") List<String> jsons,
+                                                                  @Name(value = "batchSize", defaultValue = "1000") long batchSize) {
+        long start = IngestMetrics.start();
+        try {
+            return Stream.of(ingestDocumentBatches(jsons.iterator(), batchSize));
+        } finally {
+            IngestMetrics.record("policy.createDocumentNodesFromJsonBatch", start);
+        }
+    }
+
+    /**
+     * This procedure takes a list of document jsons and creates the nodes associated with each json on several threads.
+     * The Topic and Entity nodes the documents share are resolved or created first, on a single thread. The documents
+     * are then partitioned by doc_id across the workers, each committing every batchSize documents in its own
+     * transaction. A worker writes the Document nodes of a batch before it locks the Topic and Entity nodes the batch
+     * links to, in ascending node id order, so workers only wait on each other while linking and the locks they
+     * take on the shared hub nodes can't deadlock.
+     * @param jsons The json strings for the documents to be ingested
+     * @param batchSize The number of documents each worker ingests per transaction
+     * @param concurrency The number of worker threads, 0 for one per processor
+     * @return Stream
+     */
+    @Procedure(value = "policy.createDocumentNodesFromJsonParallel", mode = Mode.WRITE)
+    @Description("Takes in a list of document jsons and creates the nodes and relationships on several threads, each committing every batchSize documents.")
+    public Stream<Util.Outgoing> createDocumentNodesFromJsonParallel(@Name("jsons") List<String> jsons,
+                                                                     @Name(value = "batchSize", defaultValue = "1000") long batchSize,
+                                                                     @Name(value = "concurrency", defaultValue = "0") long concurrency) {
+        long start = IngestMetrics.start();
+        try {
+            return Stream.of(ingestDocumentsInParallel(jsons, batchSize, (int) concurrency));
+        } finally {
+            IngestMetrics.record("policy.createDocumentNodesFromJsonParallel", start);
+        }
+    }
+
+    private Util.Outgoing ingestDocumentsInParallel(List<String> jsons, long batchSize, int concurrency) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be greater than 0");
+        }
+        PolicySchema.checkIngestSchema(db, log);
+
+        int parallelism = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<DocumentJson> documents = pool.submit(() -> jsons.parallelStream()
+                    .map(CreateNodesFromJson::parseDocument)
+                    .collect(Collectors.toList())).get();
+
+            // Phase 1, every shared name exists before the workers start so they never create the same node
+            IngestCache shared = new IngestCache();
+            Util.Outgoing sharedOut = createSharedNodes(documents, shared);
+
+            // Phase 2, the same doc_id always goes to the same worker so no two workers write one Document node
+            List<List<DocumentJson>> partitions = new ArrayList<>();
+            for (int i = 0; i < parallelism; i++) partitions.add(new ArrayList<>());
+            for (DocumentJson document : documents) {
+                partitions.get(Math.floorMod(document.getText("id", "").hashCode(), parallelism)).add(document);
+            }
+
+            List<Callable<Util.Outgoing>> workers = new ArrayList<>();
+            for (List<DocumentJson> partition : partitions) {
+                if (!partition.isEmpty()) workers.add(() -> ingestPartition(partition, (int) Math.min(batchSize, Integer.MAX_VALUE), shared));
+            }
+
+            int nodesCreated = sharedOut.nodesCreated.intValue();
+            int propertiesSet = sharedOut.propertiesSet.intValue();
+            int relationshipsCreated = 0;
+            int documentsSkipped = 0;
+            int propertiesUnchanged = 0;
+            for (Future<Util.Outgoing> result : pool.invokeAll(workers)) {
+                Util.Outgoing out = result.get();
+                nodesCreated += out.nodesCreated.intValue();
+                propertiesSet += out.propertiesSet.intValue();
+                relationshipsCreated += out.relationshipsCreated.intValue();
+                documentsSkipped += out.documentsSkipped.intValue();
+                propertiesUnchanged += out.propertiesUnchanged.intValue();
+            }
+            return new Util.Outgoing(nodesCreated, relationshipsCreated, propertiesSet, documentsSkipped, propertiesUnchanged);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while ingesting documents in parallel", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error ingesting documents in parallel", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static DocumentJson parseDocument(String json) {
+        long parseStart = IngestMetrics.start();
+        try {
+            return DocumentJson.parse(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't parse json", e);
+        } finally {
+            IngestMetrics.record(IngestMetrics.PARSE, parseStart);
+        }
+    }
+
+    /**
+     * Resolves or creates every Topic and Entity the documents link to, in one transaction, registering them in the cache
+     */
+    private Util.Outgoing createSharedNodes(List<DocumentJson> documents, IngestCache cache) {
+        int nodesCreated = 0;
+        try (Transaction tx = db.beginTx()) {
+            for (DocumentJson document : documents) {
+                for (String topic : document.getTopics()) {
+                    if (createNamedNode(tx, Label.label("Topic"), topic, cache)) nodesCreated++;
+                }
+                for (String entity : document.getEntityCounts().keySet()) {
+                    if (createNamedNode(tx, Label.label("Entity"), entity, cache)) nodesCreated++;
+                }
+            }
+            tx.commit();
+        }
+        return new Util.Outgoing(nodesCreated, 0, nodesCreated);
+    }
+
+    private boolean createNamedNode(Transaction tx, Label label, String name, IngestCache cache) {
+        if (!isNull(cache.findNode(tx, label, name))) return false;
+        Node node = tx.createNode(label);
+        node.setProperty("name", name);
+        cache.putNode(label, name, node);
+        return true;
+    }
+
+    /**
+     * Ingests one worker's documents, committing every batchSize documents
+     */
+    private Util.Outgoing ingestPartition(List<DocumentJson> documents, int batchSize, IngestCache shared) {
+        int nodesCreated = 0;
+        int propertiesSet = 0;
+        int relationshipsCreated = 0;
+        int documentsSkipped = 0;
+        int propertiesUnchanged = 0;
+        for (int from = 0; from < documents.size(); from += batchSize) {
+            List<DocumentJson> batch = documents.subList(from, Math.min(from + batchSize, documents.size()));
+            for (DocumentWrite write : ingestBatch(batch, shared)) {
+                Util.Outgoing out = write.toOutgoing();
+                nodesCreated += out.nodesCreated.intValue();
+                propertiesSet += out.propertiesSet.intValue();
+                relationshipsCreated += out.relationshipsCreated.intValue();
+                documentsSkipped += out.documentsSkipped.intValue();
+                propertiesUnchanged += out.propertiesUnchanged.intValue();
+            }
+        }
+        return new Util.Outgoing(nodesCreated, relationshipsCreated, propertiesSet, documentsSkipped, propertiesUnchanged);
+    }
+
+    /**
+     * Writes the batch's Document nodes, locks the Topic and Entity nodes they link to in ascending id order,
+     * then links them, retrying the whole batch if the transaction still fails transiently, e.g. on a deadlock
+     */
+    private List<DocumentWrite> ingestBatch(List<DocumentJson> batch, IngestCache shared) {
+        for (int attempt = 1; ; attempt++) {
+            // A fresh cache per attempt, the relationships a rolled back attempt saw don't exist
+            IngestCache cache = new IngestCache(shared);
+            try (Transaction tx = db.beginTx()) {
+                List<DocumentWrite> writes = new ArrayList<>();
+                for (DocumentJson document : batch) {
+                    writes.add(writeDocument(document, tx));
+                }
+
+                SortedSet<Long> sharedNodeIds = new TreeSet<>();
+                for (DocumentWrite write : writes) {
+                    if (write.skipped) continue;
+                    for (String topic : write.document.getTopics()) addNodeId(sharedNodeIds, cache.findNode(tx, Label.label("Topic"), topic));
+                    for (String entity : write.document.getEntityCounts().keySet()) addNodeId(sharedNodeIds, cache.findNode(tx, Label.label("Entity"), entity));
+                }
+                for (long nodeId : sharedNodeIds) {
+                    tx.acquireWriteLock(tx.getNodeById(nodeId));
+                }
+
+                for (DocumentWrite write : writes) {
+                    if (!write.skipped) linkDocument(write, tx, cache, log);
+                }
+                tx.commit();
+                return writes;
+            } catch (TransientFailureException e) {
+                if (attempt >= MAX_BATCH_ATTEMPTS) throw e;
+                log.warn(String.format("Retrying batch of %d documents after a transient failure, attempt %d: %s", batch.size(), attempt, e.getMessage()));
+            }
+        }
+    }
+
+    private static void addNodeId(Set<Long> nodeIds, Node node) {
+        if (!isNull(node)) nodeIds.add(node.getId());
+    }
+
+    /**
+     * This procedure streams a json lines file, one document json per line, from the import directory and
+     * creates the nodes associated with each document, committing the transaction every batchSize documents.
+     * Files ending in .gz are decompressed while they are read. Blank lines are skipped.
+     * @param path The path of the file, relative to the import directory
+     * @param batchSize The number of documents to ingest per transaction
+     * @return Stream
+     */
+    @Procedure(value = "policy.ingestDocumentsFromFile", mode = Mode.WRITE)
+    @Description("Streams a json lines file, optionally gzipped, from the import directory and creates the document nodes and relationships, committing every batchSize documents.")
+    public Stream<Util.Outgoing> ingestDocumentsFromFile(@Name("path") String path,
+                                                         @Name(value = "batchSize", defaultValue = "1000") long batchSize) {
+        long start = IngestMetrics.start();
+        Path file = resolveImportFile(path);
+        try (BufferedReader reader = openLines(file)) {
+            Iterator<String> lines = reader.lines().filter(line -> !line.isBlank()).iterator();
+            return Stream.of(ingestDocumentBatches(lines, batchSize));
+        } catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException(String.format("Error reading documents from %s", path), e);
+        } finally {
+            IngestMetrics.record("policy.ingestDocumentsFromFile", start);
+        }
+    }
+
+    /**
+     * Resolves the path against the import directory, as LOAD CSV does, refusing paths that leave it
+     */
+    private Path resolveImportFile(String path) {
+        Config config = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(Config.class);
+        if (!config.get(GraphDatabaseSettings.allow_file_urls)) {
+            throw new RuntimeException(String.format("Reading files is disabled by %s", GraphDatabaseSettings.allow_file_urls.name()));
+        }
+        Path importRoot = config.get(GraphDatabaseSettings.load_csv_file_url_root);
+        if (isNull(importRoot)) {
+            throw new RuntimeException(String.format("No import directory is configured, set %s", GraphDatabaseSettings.load_csv_file_url_root.name()));
+        }
+
+        importRoot = importRoot.toAbsolutePath().normalize();
+        Path file = importRoot.resolve(path.replaceFirst("^file:", "").replaceFirst("^/+", "")).normalize();
+        if (!file.startsWith(importRoot)) {
+            throw new RuntimeException(String.format("%s is outside the import directory", path));
+        }
+        if (!Files.isRegularFile(file)) {
+            throw new RuntimeException(String.format("%s not found in the import directory", path));
+        }
+        return file;
+    }
+
+    private static BufferedReader openLines(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in, READ_BUFFER_SIZE);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+    }
+
+    /**
+     * Feeds each document json through handleCreateDocumentNodesFromJson, committing every batchSize documents.
+     * Batches committed before a failure stay committed.
+     * @param jsons The json strings for the documents to be ingested
+     * @param batchSize The number of documents to ingest per transaction
+     * @return The counts aggregated over every batch
+     */
+    private Util.Outgoing ingestDocumentBatches(Iterator<String> jsons, long batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be greater than 0");
+        }
+        PolicySchema.checkIngestSchema(db, log);
+
+        int nodesCreated = 0;
+        int propertiesSet = 0;
+        int relationshipsCreated = 0;
+        int documentsSkipped = 0;
+        int propertiesUnchanged = 0;
+        long batchStart = 0;
+        IngestCache cache = new IngestCache();
+
+        while (jsons.hasNext()) {
+            long batchCount = 0;
+            try (Transaction tx = db.beginTx())
+            {
+                for (; batchCount < batchSize && jsons.hasNext(); batchCount++) {
+                    Util.Outgoing out = handleCreateDocumentNodesFromJson(jsons.next(), tx, log, cache);
+                    nodesCreated += out.nodesCreated.intValue();
+                    propertiesSet += out.propertiesSet.intValue();
+                    relationshipsCreated += out.relationshipsCreated.intValue();
+                    documentsSkipped += out.documentsSkipped.intValue();
+                    propertiesUnchanged += out.propertiesUnchanged.intValue();
+                }
+                tx.commit();
+                cache.endTransaction();
+            } catch (Exception e) {
+                throw new RuntimeException(String.format("Error creating document nodes from json batch starting at document %d", batchStart), e);
+            }
+            batchStart += batchCount;
+        }
+
+        return new Util.Outgoing(nodesCreated, relationshipsCreated, propertiesSet, documentsSkipped, propertiesUnchanged);
+    }
+
     /**
      * This procedure takes in a json string with all the entities to populate neo4j in one call
      * @param json The json string of the entities to be ingested
@@ -57,6 +376,8 @@ public class CreateNodesFromJson {
     @Procedure(value = "policy.createEntityNodesFromJson", mode = Mode.WRITE)
     @Description("Takes in a document json and creates the nodes and relationships based on the content.")
     public Stream<Util.Outgoing> createEntityNodesFromJson(@Name("json") String json) {
+        PolicySchema.checkIngestSchema(db, log);
+        long start = IngestMetrics.start();
         try (Transaction tx = db.beginTx())
         {
             Util.Outgoing out = handleCreateEntityNodesFromJson(json, tx, log);
@@ -64,6 +385,8 @@ public class CreateNodesFromJson {
             return Stream.of(out);
         } catch (Exception e) {
             throw new RuntimeException("Error creating entity node from json", e);
+        } finally {
+            IngestMetrics.record("policy.createEntityNodesFromJson", start);
         }
     }
 
@@ -75,6 +398,8 @@ public class CreateNodesFromJson {
     @Procedure(value = "policy.createOrgNodesFromJson", mode = Mode.WRITE)
     @Description("Takes in the org json and creates the nodes and relationships based on the content.")
     public Stream<Util.Outgoing> createOrgNodesFromJson(@Name("json") String json) {
+        PolicySchema.checkIngestSchema(db, log);
+        long start = IngestMetrics.start();
         try (Transaction tx = db.beginTx())
         {
             Util.Outgoing out = handleCreateOrgNodesFromJson(json, tx, log);
@@ -82,6 +407,8 @@ public class CreateNodesFromJson {
             return Stream.of(out);
         } catch (Exception e) {
             throw new RuntimeException("Error creating org node from json", e);
+        } finally {
+            IngestMetrics.record("policy.createOrgNodesFromJson", start);
         }
     }
 
@@ -93,6 +420,8 @@ public class CreateNodesFromJson {
     @Procedure(value = "policy.createRoleNodesFromJson", mode = Mode.WRITE)
     @Description("Takes in the role json and creates the nodes and relationships based on the content.")
     public Stream<Util.Outgoing> createRoleNodesFromJson(@Name("json") String json) {
+        PolicySchema.checkIngestSchema(db, log);
+        long start = IngestMetrics.start();
         try (Transaction tx = db.beginTx())
         {
             Util.Outgoing out = handleCreateRoleNodesFromJson(json, tx, log);
@@ -100,119 +429,24 @@ public class CreateNodesFromJson {
             return Stream.of(out);
         } catch (Exception e) {
             throw new RuntimeException("Error creating role node from json", e);
+        } finally {
+            IngestMetrics.record("policy.createRoleNodesFromJson", start);
         }
     }
 
     public Util.Outgoing handleCreateDocumentNodesFromJson(String json, Transaction tx, Log log) {
-        try {
-            int nodesCreated = 0;
-            int propertiesSet = 0;
-            int relationshipsCreated = 0;
-
-            JsonNode jsonNode = loadJson(json, true);
-
-            String docId = jsonNode.get("id").asText("");
-
-            Node node = tx.findNode(Label.label("Document"), "doc_id", docId);
-            if (isNull(node)) {
-                node = tx.createNode(Util.labels(Collections.singletonList("Document")));
-                nodesCreated++;
-            }
-
-            // Keyw_5 Array
-            List<String> keyw_5 = getStringListFromJsonArray(jsonNode.get("keyw_5"));
-                
-            // Topics Object
-            JsonNode topicsNode = jsonNode.get("topics_rs");
-            List<String> topicStrings = new ArrayList<>();
-            Map<String, Integer> topics = new HashMap<>();
-            Iterator<JsonNode> topicFields = topicsNode.elements();
-            int i = 0; // Filler node value for node2vec
-            while (topicFields.hasNext()) {
-                JsonNode jsonField = topicFields.next();
-                topicStrings.add(jsonField.asText());
-                topics.put(jsonField.asText(), i);
-                i++;
-            }
-            Map<String, Integer> topicsOutput = createTopicNodesAndRelationships(node, topics, tx, log);
-            nodesCreated += topicsOutput.get(nodesCreatedString);
-            propertiesSet += topicsOutput.get(propertiesSetString);
-            relationshipsCreated += topicsOutput.get(relationshipsCreatedString);
-
-            // Entity Objects
-            JsonNode entitiyNode = jsonNode.get("entities");
-            Map<String, Integer> entitiesOutput = createEntityNodesAndRelationships(node, entitiyNode, "Entity", tx, log);
-            nodesCreated += entitiesOutput.get(nodesCreatedString);
-            propertiesSet += entitiesOutput.get(propertiesSetString);
-            relationshipsCreated += entitiesOutput.get(relationshipsCreatedString);
-
-            // // Org Objects
-            // JsonNode orgNode = jsonNode.get("orgs");
-            // Map<String, Integer> orgsOutput = createEntityNodesAndRelationships(node, orgNode, "Org", tx, log);
-            // nodesCreated += orgsOutput.get(nodesCreatedString);
-            // propertiesSet += orgsOutput.get(propertiesSetString);
-            // relationshipsCreated += orgsOutput.get(relationshipsCreatedString);
-
-            // // Role Objects
-            // JsonNode roleNode = jsonNode.get("roles");
-            // Map<String, Integer> rolesOutput = createEntityNodesAndRelationships(node, roleNode, "Role", tx, log);
-            // nodesCreated += rolesOutput.get(nodesCreatedString);
-            // propertiesSet += rolesOutput.get(propertiesSetString);
-            // relationshipsCreated += rolesOutput.get(relationshipsCreatedString);
-
-            // Reference info
-            String docNum = jsonNode.get("doc_num").asText("");
-            String docType = jsonNode.get("doc_type").asText("");
-            String refName;
-            if (!docNum.equals("") && !docType.equals("")) {
-                refName = docType + " " + docNum;
-            } else {
-                refName = docId.split(",")[0].replace(".pdf_0", "");
-            }
+        return handleCreateDocumentNodesFromJson(json, tx, log, new IngestCache());
+    }
 
-            // References Array
-            List<String> references = getStringListFromJsonArray(jsonNode.get("ref_list"));
-
-            Map<String, Object> properties = Map.ofEntries(
-                entry("doc_id", docId),
-                entry("keyw_5", keyw_5),
-                entry("topics", topicStrings),
-                entry("ref_list", references),
-                entry("filename", jsonNode.get("filename").asText("")),
-                entry("title", jsonNode.get("title").asText().replace("\"", "'")),
-                entry("display_title_s", jsonNode.get("display_title_s").asText("").replace("\"", "'")),
-                entry("display_org_s", jsonNode.get("display_org_s").asText("")),
-                entry("display_doc_type_s", jsonNode.get("display_doc_type_s").asText("")),
-                entry("access_timestamp_dt", jsonNode.get("access_timestamp_dt").asText("")),
-                entry("publication_date_dt", jsonNode.get("publication_date_dt").asText("")),
-                entry("crawler_used_s", jsonNode.get("crawler_used_s").asText("")),
-                entry("source_fqdn_s", jsonNode.get("source_fqdn_s").asText("")),
-                entry("source_page_url_s", jsonNode.get("source_page_url_s").asText("")),
-                entry("download_url_s", jsonNode.get("download_url_s").asText("")),
-                entry("cac_login_required_b", jsonNode.get("cac_login_required_b").asBoolean(false)),
-                entry("doc_num", docNum),
-                entry("doc_type", docType),
-                entry("summary_30", jsonNode.get("summary_30").asText().replace("\"", "'").replace("\\", "/")),
-                entry("type", jsonNode.get("type").asText("")),
-                entry("name", jsonNode.get("filename").asText("").split(".pdf")[0]),
-                entry("ref_name", refName),
-                entry("page_count", jsonNode.get("page_count").asInt(0)),
-                entry("init_date", jsonNode.get("init_date").asText("")),
-                entry("change_date", jsonNode.get("change_date").asText("")),
-                entry("author", jsonNode.get("author").asText("")),
-                entry("signature", jsonNode.get("signature").asText("")),
-                entry("subject", jsonNode.get("subject").asText("")),
-                entry("classification", jsonNode.get("classification").asText("")),
-                entry("group_s", jsonNode.get("group_s").asText("")),
-                entry("pagerank_r", jsonNode.get("pagerank_r").asDouble(0)),
-                entry("kw_doc_score_r", jsonNode.get("kw_doc_score_r").asDouble(0)),
-                entry("version_hash_s", jsonNode.get("version_hash_s").asText("")),
-                entry("is_revoked_b", jsonNode.get("is_revoked_b").asBoolean(false))
-            );
-
-            propertiesSet += setProperties(node, properties);
+    public Util.Outgoing handleCreateDocumentNodesFromJson(String json, Transaction tx, Log log, IngestCache cache) {
+        try {
+            long parseStart = IngestMetrics.start();
+            DocumentJson document = DocumentJson.parse(json);
+            IngestMetrics.record(IngestMetrics.PARSE, parseStart);
 
-            return new Util.Outgoing(nodesCreated, relationshipsCreated, propertiesSet);
+            DocumentWrite write = writeDocument(document, tx);
+            if (!write.skipped) linkDocument(write, tx, cache, log);
+            return write.toOutgoing();
         } catch (Exception e) {
             StringWriter sw = new StringWriter();
             PrintWriter pw = new PrintWriter(sw);
@@ -223,23 +457,153 @@ public class CreateNodesFromJson {
         }
     }
 
+    /**
+     * The counts for one document, written in two steps so the parallel ingest can write every document
+     * of a batch before it locks the Topic and Entity nodes they link to
+     */
+    private static class DocumentWrite {
+        private final DocumentJson document;
+        private Node node;
+        private boolean skipped;
+        private int nodesCreated;
+        private int propertiesSet;
+        private int relationshipsCreated;
+        private int propertiesUnchanged;
+
+        private DocumentWrite(DocumentJson document) {
+            this.document = document;
+        }
+
+        private Util.Outgoing toOutgoing() {
+            return new Util.Outgoing(nodesCreated, relationshipsCreated, propertiesSet, skipped ? 1 : 0, propertiesUnchanged);
+        }
+    }
+
+    /**
+     * Creates or updates the Document node and its properties, or marks the document skipped when its
+     * version_hash_s matches the stored one
+     */
+    private DocumentWrite writeDocument(DocumentJson document, Transaction tx) {
+        DocumentWrite write = new DocumentWrite(document);
+        String docId = document.getText("id", "");
+
+        long lookupStart = IngestMetrics.start();
+        Node node = tx.findNode(Label.label("Document"), "doc_id", docId);
+        IngestMetrics.record(IngestMetrics.LOOKUP, lookupStart);
+        if (isNull(node)) {
+            node = tx.createNode(Util.labels(Collections.singletonList("Document")));
+            write.nodesCreated++;
+        } else if (isUnchanged(node, document)) {
+            // Same version as the stored document, none of its properties need rewriting
+            write.skipped = true;
+            write.propertiesUnchanged = (int) Iterables.count(node.getPropertyKeys());
+            return write;
+        }
+        write.node = node;
+
+        // Reference info
+        String docNum = document.getText("doc_num", "");
+        String docType = document.getText("doc_type", "");
+        String refName;
+        if (!docNum.equals("") && !docType.equals("")) {
+            refName = docType + " " + docNum;
+        } else {
+            refName = docId.split(",")[0].replace(".pdf_0", "");
+        }
+
+        Map<String, Object> properties = Map.ofEntries(
+            entry("doc_id", docId),
+            entry("keyw_5", document.getKeywords()),
+            entry("topics", document.getTopics()),
+            entry("ref_list", document.getReferences()),
+            entry("filename", document.getText("filename", "")),
+            entry("title", document.getText("title", "").replace("\"", "'")),
+            entry("display_title_s", document.getText("display_title_s", "").replace("\"", "'")),
+            entry("display_org_s", document.getText("display_org_s", "")),
+            entry("display_doc_type_s", document.getText("display_doc_type_s", "")),
+            entry("access_timestamp_dt", document.getText("access_timestamp_dt", "")),
+            entry("publication_date_dt", document.getText("publication_date_dt", "")),
+            entry("crawler_used_s", document.getText("crawler_used_s", "")),
+            entry("source_fqdn_s", document.getText("source_fqdn_s", "")),
+            entry("source_page_url_s", document.getText("source_page_url_s", "")),
+            entry("download_url_s", document.getText("download_url_s", "")),
+            entry("cac_login_required_b", document.getBoolean("cac_login_required_b", false)),
+            entry("doc_num", docNum),
+            entry("doc_type", docType),
+            entry("summary_30", document.getText("summary_30", "").replace("\"", "'").replace("\\", "/")),
+            entry("type", document.getText("type", "")),
+            entry("name", document.getText("filename", "").split(".pdf")[0]),
+            entry("ref_name", refName),
+            entry("ref_key", Util.refKey(refName)),
+            entry("page_count", document.getInt("page_count", 0)),
+            entry("init_date", document.getText("init_date", "")),
+            entry("change_date", document.getText("change_date", "")),
+            entry("author", document.getText("author", "")),
+            entry("signature", document.getText("signature", "")),
+            entry("subject", document.getText("subject", "")),
+            entry("classification", document.getText("classification", "")),
+            entry("group_s", document.getText("group_s", "")),
+            entry("pagerank_r", document.getDouble("pagerank_r", 0)),
+            entry("kw_doc_score_r", document.getDouble("kw_doc_score_r", 0)),
+            entry("version_hash_s", document.getText("version_hash_s", "")),
+            entry("is_revoked_b", document.getBoolean("is_revoked_b", false))
+        );
+
+        int documentPropertiesSet = setProperties(node, properties);
+        // Only a write moves ingest_timestamp, so a re-ingest that changed nothing isn't picked up as new by the linker
+        if (documentPropertiesSet > 0) {
+            setProperty(node, "ingest_timestamp", System.currentTimeMillis());
+            documentPropertiesSet++;
+        }
+        write.propertiesSet += documentPropertiesSet;
+        write.propertiesUnchanged += properties.size() + 1 - documentPropertiesSet;
+        return write;
+    }
+
+    /**
+     * Links a written document to its topics and entities, creating any that don't exist
+     */
+    private void linkDocument(DocumentWrite write, Transaction tx, IngestCache cache, Log log) {
+        // Topics Object
+        Map<String, Integer> topics = new HashMap<>();
+        int i = 0; // Filler node value for node2vec
+        for (String topic : write.document.getTopics()) {
+            topics.put(topic, i);
+            i++;
+        }
+        Map<String, Integer> topicsOutput = createTopicNodesAndRelationships(write.node, topics, tx, cache, log);
+        write.nodesCreated += topicsOutput.get(nodesCreatedString);
+        write.propertiesSet += topicsOutput.get(propertiesSetString);
+        write.relationshipsCreated += topicsOutput.get(relationshipsCreatedString);
+
+        // Entity Objects
+        Map<String, Integer> entitiesOutput = createEntityNodesAndRelationships(write.node, write.document.getEntityCounts(), "Entity", tx, cache, log);
+        write.nodesCreated += entitiesOutput.get(nodesCreatedString);
+        write.propertiesSet += entitiesOutput.get(propertiesSetString);
+        write.relationshipsCreated += entitiesOutput.get(relationshipsCreatedString);
+    }
+
     // deprecated function to be deleted
     public Util.Outgoing handleCreateEntityNodesFromJson(String json, Transaction tx, Log log) {
+        IngestCache cache = new IngestCache();
         try {
             int nodesCreated = 0;
             int propertiesSet = 0;
             int relationshipsCreated = 0;
 
+            long parseStart = IngestMetrics.start();
             JsonNode jsonNode = loadJson(json, true);
+            IngestMetrics.record(IngestMetrics.PARSE, parseStart);
 
             for (final JsonNode entityNode : jsonNode) {
                 String agencyName = entityNode.get("Agency_Name").asText("");
                 String parentName = entityNode.get("Parent_Agency").asText("");
 
-                Node node = tx.findNode(Label.label("Entity"), "name", agencyName);
+                Node node = cache.findNode(tx, Label.label("Entity"), agencyName);
                 if (isNull(node)) {
                     node = tx.createNode(Util.labels(Collections.singletonList("Entity")));
                     nodesCreated++;
+                    cache.putNode(Label.label("Entity"), agencyName, node);
                 }
 
                 Map<String, Object> properties = Map.ofEntries(
@@ -257,29 +621,31 @@ public class CreateNodesFromJson {
 
                 propertiesSet += setProperties(node, properties);
 
-                Node parentNode = tx.findNode(Label.label("Entity"), "name", parentName);
+                Node parentNode = cache.findNode(tx, Label.label("Entity"), parentName);
                 if (isNull(parentNode)) {
                     parentNode = tx.createNode(Util.labels(Collections.singletonList("Entity")));
                     parentNode.setProperty("name", parentName);
+                    cache.putNode(Label.label("Entity"), parentName, parentNode);
                     nodesCreated++;
                     propertiesSet++;
                 }
                 
-                if (Util.createNonDuplicateRelationship(node, parentNode, RelationshipType.withName("CHILD_OF"), log) != null)
+                if (Util.createNonDuplicateRelationship(node, parentNode, RelationshipType.withName("CHILD_OF"), cache, log) != null)
                     relationshipsCreated++;
 
                 String[] relatedEntities = entityNode.get("Related_Agency").asText("").split(";");
                 for (final String relatedEntity : relatedEntities) {
-                    Node relatedNode = tx.findNode(Label.label("Entity"), "name", relatedEntity.trim());
+                    Node relatedNode = cache.findNode(tx, Label.label("Entity"), relatedEntity.trim());
                     if (isNull(relatedNode)) {
                         relatedNode = tx.createNode(Util.labels(Collections.singletonList("Entity")));
                         relatedNode.setProperty("name", relatedEntity.trim());
+                        cache.putNode(Label.label("Entity"), relatedEntity.trim(), relatedNode);
                         nodesCreated++;
                         propertiesSet++;
                     }
-                    if (Util.createNonDuplicateRelationship(node, relatedNode, RelationshipType.withName("RELATED_TO"), log) != null)
+                    if (Util.createNonDuplicateRelationship(node, relatedNode, RelationshipType.withName("RELATED_TO"), cache, log) != null)
                         relationshipsCreated++;
-                    if (Util.createNonDuplicateRelationship(relatedNode, node, RelationshipType.withName("RELATED_TO"), log) != null)
+                    if (Util.createNonDuplicateRelationship(relatedNode, node, RelationshipType.withName("RELATED_TO"), cache, log) != null)
                         relationshipsCreated++;
                 }
             }
@@ -290,27 +656,30 @@ public class CreateNodesFromJson {
         }
     }
 
-    private Map<String, Integer> createTopicNodesAndRelationships(Node documentNode, Map<String, Integer> topicsMap, Transaction tx, Log log) {
+    private Map<String, Integer> createTopicNodesAndRelationships(Node documentNode, Map<String, Integer> topicsMap, Transaction tx, IngestCache cache, Log log) {
         Integer nodesCreated = 0;
         Integer propertiesSet = 0;
         Integer relationshipsCreated = 0;
+        boolean writeIsIn = Settings.writeTopicIsIn();
 
         for (String key : topicsMap.keySet()) {
-            Node tmp = tx.findNode(Label.label("Topic"), "name", key);
+            Node tmp = cache.findNode(tx, Label.label("Topic"), key);
             if (isNull(tmp)) {
                 tmp = tx.createNode(Util.labels(Collections.singletonList("Topic")));
                 tmp.setProperty("name", key);
+                cache.putNode(Label.label("Topic"), key, tmp);
                 nodesCreated++;
                 propertiesSet++;
             }
 
-            Relationship containsRel = Util.createNonDuplicateRelationship(documentNode, tmp, RelationshipType.withName("CONTAINS"), log);
+            Relationship containsRel = Util.createNonDuplicateRelationship(documentNode, tmp, RelationshipType.withName("CONTAINS"), cache, log);
             if (containsRel != null) {
                 containsRel.setProperty("relevancy", topicsMap.get(key));
                 relationshipsCreated++;
                 propertiesSet++;
-            }            
-            Relationship isInRel = Util.createNonDuplicateRelationship(tmp, documentNode, RelationshipType.withName("IS_IN"), log);
+            }
+            if (!writeIsIn) continue;
+            Relationship isInRel = Util.createNonDuplicateRelationship(tmp, documentNode, RelationshipType.withName("IS_IN"), cache, log);
             if (isInRel != null) {
                 isInRel.setProperty("relevancy", topicsMap.get(key));
                 relationshipsCreated++;
@@ -324,28 +693,25 @@ public class CreateNodesFromJson {
         );
     }
 
-    private Map<String, Integer> createEntityNodesAndRelationships(Node documentNode, JsonNode entitiesNode, String nodeType, Transaction tx, Log log) {
+    private Map<String, Integer> createEntityNodesAndRelationships(Node documentNode, Map<String, Integer> entityCounts, String nodeType, Transaction tx, IngestCache cache, Log log) {
         Integer nodesCreated = 0;
         Integer propertiesSet = 0;
         Integer relationshipsCreated = 0;
 
-        JsonNode entityPars = entitiesNode.get("entityPars");
-        JsonNode entityCounts = entitiesNode.get("entityCounts");
-        Iterator<Map.Entry<String, JsonNode>> entityFields = entityPars.fields();
-        while (entityFields.hasNext()) {
-            Map.Entry<String, JsonNode> jsonField = entityFields.next();
-            String key = jsonField.getKey();
-            Integer mentionsCount = entityCounts.get(key).asInt(0);
+        for (Map.Entry<String, Integer> entityCount : entityCounts.entrySet()) {
+            String key = entityCount.getKey();
+            Integer mentionsCount = entityCount.getValue();
 
-            Node tmp = tx.findNode(Label.label(nodeType), "name", key);
+            Node tmp = cache.findNode(tx, Label.label(nodeType), key);
             if (isNull(tmp)) {
                 tmp = tx.createNode(Util.labels(Collections.singletonList(nodeType)));
                 tmp.setProperty("name", key);
+                cache.putNode(Label.label(nodeType), key, tmp);
                 nodesCreated++;
                 propertiesSet++;
             }
 
-            Relationship containsRel = Util.createNonDuplicateRelationship(documentNode, tmp, RelationshipType.withName("MENTIONS"), log);
+            Relationship containsRel = Util.createNonDuplicateRelationship(documentNode, tmp, RelationshipType.withName("MENTIONS"), cache, log);
             if (containsRel != null) {
                 containsRel.setProperty("count", mentionsCount);
                 relationshipsCreated++;
@@ -366,20 +732,31 @@ public class CreateNodesFromJson {
             int propertiesSet = 0;
             int relationshipsCreated = 0;
 
+            long parseStart = IngestMetrics.start();
             JsonNode jsonNode = loadJson(json, true);
+            IngestMetrics.record(IngestMetrics.PARSE, parseStart);
 
+            // Resolve every name in the file in one pass and create the missing Entity nodes once
+            Set<String> names = new LinkedHashSet<>();
             for (final JsonNode orgNode : jsonNode) {
-                String orgName = orgNode.get("Name").asText("");
-                String orgParentName = orgNode.get("Parent").asText("");
-                String orgType = orgNode.get("Type").asText("");
-                String orgSubtype = orgNode.get("Subtype").asText("");
-                String orgHead = orgNode.get("Head").asText("");
+                names.add(orgNode.get("Name").asText(""));
+                addName(names, orgNode.get("Parent").asText(""));
+                addName(names, orgNode.get("Type").asText(""));
+                addName(names, orgNode.get("Subtype").asText(""));
+                addName(names, orgNode.get("Head").asText(""));
+            }
+            Map<String, Node> entities = resolveEntityNodes(names, tx);
+            nodesCreated += names.size() - entities.size();
+            propertiesSet += names.size() - entities.size();
+            createMissingEntityNodes(names, entities, tx);
 
-                Node node = tx.findNode(Label.label("Entity"), "name", orgName);
-                if (isNull(node)) {
-                    node = tx.createNode(Util.labels(Collections.singletonList("Entity")));
-                    nodesCreated++;
-                }
+            Set<Node> orgNodes = new LinkedHashSet<>();
+            for (final JsonNode orgNode : jsonNode) orgNodes.add(entities.get(orgNode.get("Name").asText("")));
+            IngestCache existing = loadHierarchyRelationships(orgNodes, List.of("CHILD_OF", "TYPE_OF", "HAS_HEAD"), List.of());
+
+            for (final JsonNode orgNode : jsonNode) {
+                String orgName = orgNode.get("Name").asText("");
+                Node node = entities.get(orgName);
 
                 Map<String, Object> properties = Map.ofEntries(
                     entry("name", orgName),
@@ -391,60 +768,10 @@ public class CreateNodesFromJson {
 
                 propertiesSet += setProperties(node, properties);
 
-                if (!orgParentName.isEmpty()) {
-                    Node parentNode = tx.findNode(Label.label("Entity"), "name", orgParentName);
-                    if (isNull(parentNode)) {
-                        parentNode = tx.createNode(Util.labels(Collections.singletonList("Entity")));
-                        parentNode.setProperty("name", orgParentName);
-                        nodesCreated++;
-                        propertiesSet++;
-                    }
-    
-                    if (Util.createNonDuplicateRelationship(node, parentNode, RelationshipType.withName("CHILD_OF"), log) != null)
-                        relationshipsCreated++;
-                }
-                
-                // Type
-                if (!orgType.isEmpty()) {
-                    Node typeNode = tx.findNode(Label.label("Entity"), "name", orgType);
-                    if (isNull(typeNode)) {
-                        typeNode = tx.createNode(Util.labels(Collections.singletonList("Entity")));
-                        typeNode.setProperty("name", orgType);
-                        nodesCreated++;
-                        propertiesSet++;
-                    }
-    
-                    if (Util.createNonDuplicateRelationship(node, typeNode, RelationshipType.withName("TYPE_OF"), log) != null)
-                        relationshipsCreated++;
-                }
-
-                // Subtype
-                if (!orgSubtype.isEmpty()) {
-                    Node subtypeNode = tx.findNode(Label.label("Entity"), "name", orgSubtype);
-                    if (isNull(subtypeNode)) {
-                        subtypeNode = tx.createNode(Util.labels(Collections.singletonList("Entity")));
-                        subtypeNode.setProperty("name", orgSubtype);
-                        nodesCreated++;
-                        propertiesSet++;
-                    }
-    
-                    if (Util.createNonDuplicateRelationship(node, subtypeNode, RelationshipType.withName("TYPE_OF"), log) != null)
-                        relationshipsCreated++;
-                }
-
-                // Head
-                if (!orgHead.isEmpty()) {
-                    Node headNode = tx.findNode(Label.label("Entity"), "name", orgHead);
-                    if (isNull(headNode)) {
-                        headNode = tx.createNode(Util.labels(Collections.singletonList("Entity")));
-                        headNode.setProperty("name", orgHead);
-                        nodesCreated++;
-                        propertiesSet++;
-                    }
-    
-                    if (Util.createNonDuplicateRelationship(node, headNode, RelationshipType.withName("HAS_HEAD"), log) != null)
-                        relationshipsCreated++;
-                }
+                relationshipsCreated += createHierarchyRelationship(node, entities.get(orgNode.get("Parent").asText("")), "CHILD_OF", existing);
+                relationshipsCreated += createHierarchyRelationship(node, entities.get(orgNode.get("Type").asText("")), "TYPE_OF", existing);
+                relationshipsCreated += createHierarchyRelationship(node, entities.get(orgNode.get("Subtype").asText("")), "TYPE_OF", existing);
+                relationshipsCreated += createHierarchyRelationship(node, entities.get(orgNode.get("Head").asText("")), "HAS_HEAD", existing);
             }
             return new Util.Outgoing(nodesCreated, relationshipsCreated, propertiesSet);
         } catch (Exception e) {
@@ -458,20 +785,31 @@ public class CreateNodesFromJson {
             int propertiesSet = 0;
             int relationshipsCreated = 0;
 
+            long parseStart = IngestMetrics.start();
             JsonNode jsonNode = loadJson(json, true);
+            IngestMetrics.record(IngestMetrics.PARSE, parseStart);
 
+            // Resolve every name in the file in one pass and create the missing Entity nodes once
+            Set<String> names = new LinkedHashSet<>();
             for (final JsonNode roleNode : jsonNode) {
-                String roleName = roleNode.get("Name").asText("");
-                String roleParentName = roleNode.get("Parent").asText("");
-                String roleOrgParentName = roleNode.get("OrgParent").asText("");
-                String roleType = roleNode.get("Type").asText("");
-                String roleSubtype = roleNode.get("Subtype").asText("");
+                names.add(roleNode.get("Name").asText(""));
+                addName(names, roleNode.get("Parent").asText(""));
+                addName(names, roleNode.get("OrgParent").asText(""));
+                addName(names, roleNode.get("Type").asText(""));
+                addName(names, roleNode.get("Subtype").asText(""));
+            }
+            Map<String, Node> entities = resolveEntityNodes(names, tx);
+            nodesCreated += names.size() - entities.size();
+            propertiesSet += names.size() - entities.size();
+            createMissingEntityNodes(names, entities, tx);
 
-                Node node = tx.findNode(Label.label("Entity"), "name", roleName);
-                if (isNull(node)) {
-                    node = tx.createNode(Util.labels(Collections.singletonList("Entity")));
-                    nodesCreated++;
-                }
+            Set<Node> roleNodes = new LinkedHashSet<>();
+            for (final JsonNode roleNode : jsonNode) roleNodes.add(entities.get(roleNode.get("Name").asText("")));
+            IngestCache existing = loadHierarchyRelationships(roleNodes, List.of("CHILD_OF", "TYPE_OF"), List.of("HAS_ROLE", "HAS_HEAD"));
+
+            for (final JsonNode roleNode : jsonNode) {
+                String roleName = roleNode.get("Name").asText("");
+                Node node = entities.get(roleName);
 
                 Map<String, Object> properties = Map.ofEntries(
                     entry("name", roleName),
@@ -481,65 +819,16 @@ public class CreateNodesFromJson {
 
                 propertiesSet += setProperties(node, properties);
 
-                // parent
-                if (!roleParentName.isEmpty()) {
-                    Node parentNode = tx.findNode(Label.label("Entity"), "name", roleParentName);
-                    if (isNull(parentNode)) {
-                        parentNode = tx.createNode(Util.labels(Collections.singletonList("Entity")));
-                        parentNode.setProperty("name", roleParentName);
-                        nodesCreated++;
-                        propertiesSet++;
-                    }
-    
-                    if (Util.createNonDuplicateRelationship(node, parentNode, RelationshipType.withName("CHILD_OF"), log) != null)
-                        relationshipsCreated++;
-                }
-                
-                // orgParent
-                if (!roleOrgParentName.isEmpty()) {
-                    Node orgParentNode = tx.findNode(Label.label("Entity"), "name", roleOrgParentName);
-                    if (isNull(orgParentNode)) {
-                        orgParentNode = tx.createNode(Util.labels(Collections.singletonList("Entity")));
-                        orgParentNode.setProperty("name", roleOrgParentName);
-                        nodesCreated++;
-                        propertiesSet++;
-                    } 
-                    // Only add "HAS_ROLE" between org/role if the role is not "HEAD" of the org
-                    if (Util.checkNodeRelationshipExists(orgParentNode, node, RelationshipType.withName("HAS_HEAD"), log) == false) {
-                        if (Util.createNonDuplicateRelationship(orgParentNode, node, RelationshipType.withName("HAS_ROLE"), log) != null)
-                            relationshipsCreated++;
-                    }
+                relationshipsCreated += createHierarchyRelationship(node, entities.get(roleNode.get("Parent").asText("")), "CHILD_OF", existing);
 
-                }
-                
-
-                // Type
-                if (!roleType.isEmpty()) {
-                    Node typeNode = tx.findNode(Label.label("Entity"), "name", roleType);
-                    if (isNull(typeNode)) {
-                        typeNode = tx.createNode(Util.labels(Collections.singletonList("Entity")));
-                        typeNode.setProperty("name", roleType);
-                        nodesCreated++;
-                        propertiesSet++;
-                    }
-    
-                    if (Util.createNonDuplicateRelationship(node, typeNode, RelationshipType.withName("TYPE_OF"), log) != null)
-                        relationshipsCreated++;
+                // Only add "HAS_ROLE" between org/role if the role is not "HEAD" of the org
+                Node orgParentNode = entities.get(roleNode.get("OrgParent").asText(""));
+                if (!isNull(orgParentNode) && !existing.hasRelationship(orgParentNode, node, RelationshipType.withName("HAS_HEAD"))) {
+                    relationshipsCreated += createHierarchyRelationship(orgParentNode, node, "HAS_ROLE", existing);
                 }
 
-                // Subtype
-                if (!roleSubtype.isEmpty()) {
-                    Node subtypeNode = tx.findNode(Label.label("Entity"), "name", roleSubtype);
-                    if (isNull(subtypeNode)) {
-                        subtypeNode = tx.createNode(Util.labels(Collections.singletonList("Entity")));
-                        subtypeNode.setProperty("name", roleSubtype);
-                        nodesCreated++;
-                        propertiesSet++;
-                    }
-    
-                    if (Util.createNonDuplicateRelationship(node, subtypeNode, RelationshipType.withName("TYPE_OF"), log) != null)
-                        relationshipsCreated++;
-                }
+                relationshipsCreated += createHierarchyRelationship(node, entities.get(roleNode.get("Type").asText("")), "TYPE_OF", existing);
+                relationshipsCreated += createHierarchyRelationship(node, entities.get(roleNode.get("Subtype").asText("")), "TYPE_OF", existing);
             }
             return new Util.Outgoing(nodesCreated, relationshipsCreated, propertiesSet);
         } catch (Exception e) {
@@ -547,13 +836,94 @@ public class CreateNodesFromJson {
         }
     }
 
+    private static void addName(Set<String> names, String name) {
+        if (!name.isEmpty()) names.add(name);
+    }
+
+    /**
+     * Looks up the Entity nodes for all the names with one index seek per name in a single query
+     * @return The nodes by name, without the names that have no Entity node
+     */
+    private Map<String, Node> resolveEntityNodes(Set<String> names, Transaction tx) {
+        long start = IngestMetrics.start();
+        Map<String, Node> entities = new HashMap<>();
+        try (Result result = tx.execute("MATCH (e:Entity) WHERE e.name IN $names RETURN e.name AS name, e AS node",
+                Util.map("names", new ArrayList<>(names)))) {
+            while (result.hasNext()) {
+                Map<String, Object> row = result.next();
+                entities.putIfAbsent((String) row.get("name"), (Node) row.get("node"));
+            }
+        }
+        IngestMetrics.record(IngestMetrics.LOOKUP, start);
+        return entities;
+    }
+
+    private void createMissingEntityNodes(Set<String> names, Map<String, Node> entities, Transaction tx) {
+        for (String name : names) {
+            if (entities.containsKey(name)) continue;
+            Node node = tx.createNode(Label.label("Entity"));
+            node.setProperty("name", name);
+            entities.put(name, node);
+        }
+    }
+
+    /**
+     * Reads the hierarchy relationships the records already have, outgoing and incoming by type, so new ones
+     * are checked against a set instead of scanning the relationships of the shared parent and type nodes
+     */
+    private IngestCache loadHierarchyRelationships(Collection<Node> recordNodes, List<String> outgoingTypes, List<String> incomingTypes) {
+        long start = IngestMetrics.start();
+        IngestCache existing = new IngestCache();
+        RelationshipType[] outgoing = outgoingTypes.stream().map(RelationshipType::withName).toArray(RelationshipType[]::new);
+        RelationshipType[] incoming = incomingTypes.stream().map(RelationshipType::withName).toArray(RelationshipType[]::new);
+        for (Node node : recordNodes) {
+            if (outgoing.length > 0) {
+                for (Relationship rel : node.getRelationships(Direction.OUTGOING, outgoing)) existing.putRelationship(node, rel.getEndNode(), rel.getType());
+            }
+            if (incoming.length > 0) {
+                for (Relationship rel : node.getRelationships(Direction.INCOMING, incoming)) existing.putRelationship(rel.getStartNode(), node, rel.getType());
+            }
+        }
+        IngestMetrics.record(IngestMetrics.DEDUPE, start);
+        return existing;
+    }
+
+    /**
+     * Creates the relationship unless toNode is null or the relationship is already in existing
+     * @return 1 if the relationship was created, otherwise 0
+     */
+    private int createHierarchyRelationship(Node fromNode, Node toNode, String type, IngestCache existing) {
+        if (isNull(toNode)) return 0;
+        RelationshipType relationshipType = RelationshipType.withName(type);
+        if (existing.hasRelationship(fromNode, toNode, relationshipType)) return 0;
+        fromNode.createRelationshipTo(toNode, relationshipType);
+        existing.putRelationship(fromNode, toNode, relationshipType);
+        return 1;
+    }
+
+    /**
+     * True if the document's version_hash_s is set and matches the one stored on the node
+     */
+    private boolean isUnchanged(Node node, DocumentJson document) {
+        String versionHash = document.getText("version_hash_s", "");
+        return !versionHash.isEmpty() && versionHash.equals(node.getProperty("version_hash_s", null));
+    }
+
+    /**
+     * Writes the properties whose values differ from the ones stored on the node
+     * @return The number of properties written
+     */
     private int setProperties(Node node, Map<String, Object> properties)  {
         if (isNull(node)) return 0;
+        long start = IngestMetrics.start();
         int propsSet = 0;
         for (Map.Entry<String, Object> entry : properties.entrySet()) {
-            setProperty(node, entry.getKey(), entry.getValue());
+            Object value = isNull(entry.getValue()) ? null : Util.toPropertyValue(entry.getValue());
+            if (Objects.deepEquals(node.getProperty(entry.getKey(), null), value)) continue;
+            setProperty(node, entry.getKey(), value);
             propsSet++;
         }
+        IngestMetrics.record(IngestMetrics.PROPERTIES, start);
         return propsSet;
     }
 }
@@ -1,11 +1,22 @@
 package policy.ingest;
 
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableObjectIntMap;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
 import org.neo4j.graphdb.*;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.*;
+import policy.schema.PolicySchema;
+import policy.utils.IngestMetrics;
+import policy.utils.PluginState;
 import policy.utils.Util;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -17,6 +28,12 @@ public class CreateUnknownDocsAndReferences {
     private final static String nodesCreatedString = "nodesCreated";
     private final static String propertiesSetString = "propertiesSet";
     private final static String relationshipsCreatedString = "relationshipsCreated";
+    private final static String uknDocLabel = "UKN Document: ";
+    private final static String referenceLinkingState = "reference_linking";
+    private final static String watermarkProperty = "watermark";
+    private final static String cursorProperty = "cursor";
+    private final static String cursorTimestampProperty = "cursor_timestamp";
+    private final static int minPartitionSize = 1000;
 
     // This gives us a log instance that outputs messages to the
     // standard log, normally found under `data/log/console.log`
@@ -28,96 +45,406 @@ public class CreateUnknownDocsAndReferences {
 
     /**
      * Creates UKN_Document nodes for any references that is not in the db
+     * @param concurrency The number of threads reading documents for the reference map, 0 for one per processor
      */
     @Procedure(value = "policy.createUKNDocumentNodesAndAllReferences", mode = Mode.WRITE)
     @Description("Creates UKN_Document nodes for any references that is not in the db.")
-    public Stream<Util.Outgoing> createUKNDocumentNodesAndAllReferences() {
+    public Stream<Util.Outgoing> createUKNDocumentNodesAndAllReferences(@Name(value = "concurrency", defaultValue = "0") long concurrency) {
+        PolicySchema.checkIngestSchema(db, log);
+        long start = IngestMetrics.start();
         try (Transaction tx = db.beginTx())
         {
-            Util.Outgoing out = handleCreateUKNDocumentNodesAndAllReferences(tx, log);
+            Util.Outgoing out = handleCreateUKNDocumentNodesAndAllReferences(tx, (int) concurrency, log);
             tx.commit();
             return Stream.of(out);
         } catch (Exception e) {
             throw new RuntimeException("Error creating UKN_Document Nodes and References", e);
+        } finally {
+            IngestMetrics.record("policy.createUKNDocumentNodesAndAllReferences", start);
         }
     }
 
-    public Util.Outgoing handleCreateUKNDocumentNodesAndAllReferences(Transaction tx, Log log) {
+    /**
+     * Links only the documents ingested or changed since the last run, re-pointing any UKN_Document
+     * placeholders that a newly ingested document now satisfies
+     * @param overlapSeconds How far before the stored watermark to look again, for ingest transactions that
+     *                       were stamped before the last run but committed after it
+     */
+    @Procedure(value = "policy.createUKNDocumentNodesAndNewReferences", mode = Mode.WRITE)
+    @Description("Creates references and UKN_Document nodes for documents ingested since the last run and re-points UKN_Document nodes that now have a document.")
+    public Stream<Util.Outgoing> createUKNDocumentNodesAndNewReferences(@Name(value = "overlapSeconds", defaultValue = "300") long overlapSeconds) {
+        PolicySchema.checkIngestSchema(db, log);
+        long start = IngestMetrics.start();
+        try (Transaction tx = db.beginTx())
+        {
+            Util.Outgoing out = handleCreateUKNDocumentNodesAndNewReferences(overlapSeconds, tx, log);
+            tx.commit();
+            return Stream.of(out);
+        } catch (Exception e) {
+            throw new RuntimeException("Error creating UKN_Document Nodes and References for new documents", e);
+        } finally {
+            IngestMetrics.record("policy.createUKNDocumentNodesAndNewReferences", start);
+        }
+    }
+
+    /**
+     * Does the same work as policy.createUKNDocumentNodesAndAllReferences, committing every chunkSize documents
+     * and persisting a cursor so an interrupted run resumes after the last committed chunk. Documents are linked in
+     * (ingest_timestamp, node id) order, so a document stored in a reused node id after the cursor was written is
+     * still linked.
+     * @param chunkSize The number of documents to link per transaction
+     * @param concurrency The number of threads reading documents for the reference map, 0 for one per processor
+     * @return Stream of one row per committed chunk
+     */
+    @Procedure(value = "policy.createUKNDocumentNodesAndAllReferencesInChunks", mode = Mode.WRITE)
+    @Description("Creates UKN_Document nodes and references for every document in chunked transactions, resuming an interrupted run.")
+    public Stream<Util.ChunkProgress> createUKNDocumentNodesAndAllReferencesInChunks(@Name(value = "chunkSize", defaultValue = "1000") long chunkSize,
+                                                                                 @Name(value = "concurrency", defaultValue = "0") long concurrency) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+        PolicySchema.checkIngestSchema(db, log);
+        long start = IngestMetrics.start();
+        return handleCreateUKNDocumentNodesAndAllReferencesInChunks(chunkSize, (int) concurrency, log)
+                .onClose(() -> IngestMetrics.record("policy.createUKNDocumentNodesAndAllReferencesInChunks", start));
+    }
+
+    public Util.Outgoing handleCreateUKNDocumentNodesAndAllReferences(Transaction tx, int concurrency, Log log) {
         try {
-            int nodesCreated = 0;
-            int propertiesSet = 0;
-            int relationshipsCreated = 0;
-
-            Map<String, List<Node>> refMap = new HashMap<>();
-            Map<Node, List<String>> mapDocsToReferences = new HashMap<>();
-            List<Node> documentNodes = tx.findNodes(Label.label("Document")).stream().collect(Collectors.toList());
-
-            // Loop through the nodes creating a ref map
-            for (Node docNode : documentNodes ) {
-                // Add this doc to refList
-                if (refMap.containsKey(docNode.getProperty("ref_name").toString())) {
-                    refMap.get(docNode.getProperty("ref_name").toString()).add(docNode);
-                } else {
-                    List<Node> tmp = new ArrayList<>();
-                    tmp.add(docNode);
-                    refMap.put(docNode.getProperty("ref_name").toString(), tmp);
-                }
+            // The reference map is read from committed data, this transaction hasn't written anything yet
+            ReferenceMap refMap = buildReferenceMap(concurrency);
+
+            // Documents with no entry in the map have no documents for that reference so create a UKN_Document Node
+            // also create relationships
+            Map<String, Integer> uknDocsAndRefsOutput = createReferences(refMap, 0, refMap.docIds.size(), tx, log);
+
+            // Every document has been linked, incremental runs only need what is ingested after this
+            long watermark = Math.max(refMap.watermark, PluginState.getLong(tx, referenceLinkingState, watermarkProperty, 0L));
+            PluginState.setProperty(tx, referenceLinkingState, watermarkProperty, watermark);
+
+            return new Util.Outgoing(uknDocsAndRefsOutput.get(nodesCreatedString),
+                    uknDocsAndRefsOutput.get(relationshipsCreatedString),
+                    uknDocsAndRefsOutput.get(propertiesSetString));
+        } catch (Exception e) {
+            throw new RuntimeException("Can't create references", e);
+        }
+    }
+
+    /**
+     * @return A lazy stream that links and commits one chunk per element, and stores the watermark after the last
+     */
+    public Stream<Util.ChunkProgress> handleCreateUKNDocumentNodesAndAllReferencesInChunks(long chunkSize, int concurrency, Log log) {
+        ReferenceMap refMap = buildReferenceMap(concurrency);
+        long cursorTimestamp;
+        long cursor;
+        try (Transaction tx = db.beginTx()) {
+            cursorTimestamp = PluginState.getLong(tx, referenceLinkingState, cursorTimestampProperty, -1L);
+            cursor = PluginState.getLong(tx, referenceLinkingState, cursorProperty, -1L);
+        }
+        if (cursorTimestamp >= 0) {
+            log.info(String.format("Resuming reference linking after document node %d ingested at %d", cursor, cursorTimestamp));
+        }
+        return Util.lazyStream(new ChunkedLinker(refMap, cursorTimestamp, cursor, chunkSize, log));
+    }
+
+    /**
+     * Links the next chunk of documents each time it is called, null once every document is linked
+     */
+    private class ChunkedLinker implements Supplier<Util.ChunkProgress> {
+        private final ReferenceMap refMap;
+        private final long chunkSize;
+        private final Log log;
+        private long cursor;
+        private int from = 0;
+        private long chunk = 0;
+        private boolean finished = false;
+
+        private ChunkedLinker(ReferenceMap refMap, long cursorTimestamp, long cursor, long chunkSize, Log log) {
+            this.refMap = refMap;
+            this.cursor = cursor;
+            this.chunkSize = chunkSize;
+            this.log = log;
+            // Documents are in (ingest_timestamp, id) order, so the cursor is the last pair linked. A node id reused
+            // since then belongs to a document ingested later, which sorts after the cursor.
+            while (from < refMap.docIds.size() && (refMap.timestamps.get(from) < cursorTimestamp
+                    || (refMap.timestamps.get(from) == cursorTimestamp && refMap.docIds.get(from) <= cursor))) from++;
+        }
+
+        @Override
+        public Util.ChunkProgress get() {
+            if (finished) return null;
+            if (from >= refMap.docIds.size()) {
+                finish();
+                return null;
+            }
+            int to = (int) Math.min(refMap.docIds.size(), from + chunkSize);
+            long chunkCursor = refMap.docIds.get(to - 1);
+
+            Util.ChunkProgress progress;
+            try (Transaction tx = db.beginTx()) {
+                Map<String, Integer> counts = createReferences(refMap, from, to, tx, log);
+                PluginState.setProperty(tx, referenceLinkingState, cursorTimestampProperty, refMap.timestamps.get(to - 1));
+                PluginState.setProperty(tx, referenceLinkingState, cursorProperty, chunkCursor);
+                tx.commit();
+
+                progress = new Util.ChunkProgress(chunk, to - from, chunkCursor, counts.get(nodesCreatedString),
+                        counts.get(relationshipsCreatedString), counts.get(propertiesSetString));
+                log.info(String.format("Linked references for chunk %d, %d documents up to node %d", chunk, to - from, chunkCursor));
+            } catch (Exception e) {
+                throw new RuntimeException(String.format("Error linking references for chunk %d after document node %d, rerun to resume", chunk, cursor), e);
+            }
+            cursor = chunkCursor;
+            from = to;
+            chunk++;
+            return progress;
+        }
+
+        private void finish() {
+            finished = true;
+            // The run finished, the next one starts from the beginning
+            try (Transaction tx = db.beginTx()) {
+                PluginState.removeProperty(tx, referenceLinkingState, cursorTimestampProperty);
+                PluginState.removeProperty(tx, referenceLinkingState, cursorProperty);
+                long watermark = Math.max(refMap.watermark, PluginState.getLong(tx, referenceLinkingState, watermarkProperty, 0L));
+                PluginState.setProperty(tx, referenceLinkingState, watermarkProperty, watermark);
+                tx.commit();
+            }
+        }
+    }
+
+    /**
+     * The documents for each ref_key and the ids of every document, ordered by ingest_timestamp and then id.
+     * Ids are kept instead of nodes so the map can be used across transactions. Each distinct ref_key is
+     * interned to a dense int id that indexes the primitive node id lists, so memory grows with the number of
+     * distinct references rather than with a boxed list per reference.
+     */
+    private static class ReferenceMap {
+        private static final long[] NO_DOCUMENTS = new long[0];
+
+        private final MutableObjectIntMap<String> refIds = new ObjectIntHashMap<>();
+        // The first document for each ref id, indexed by ref id
+        private final LongArrayList docByRef = new LongArrayList();
+        // The rare documents that share a ref_key with the first one
+        private final MutableIntObjectMap<LongArrayList> moreDocsByRef = new IntObjectHashMap<>();
+        private final LongArrayList docIds = new LongArrayList();
+        // The ingest_timestamp of each document in docIds, 0 for documents stored without one
+        private final LongArrayList timestamps = new LongArrayList();
+        private long watermark = 0;
+
+        private void add(String refKey, long docId) {
+            int refId = refIds.getIfAbsentPut(refKey, refIds.size());
+            if (refId == docByRef.size()) {
+                docByRef.add(docId);
+            } else {
+                moreDocsByRef.getIfAbsentPut(refId, LongArrayList::new).add(docId);
+            }
+        }
+
+        private long[] docsFor(String refKey) {
+            int refId = refIds.getIfAbsent(refKey, -1);
+            if (refId < 0) return NO_DOCUMENTS;
+            LongArrayList more = moreDocsByRef.get(refId);
+            if (more == null) return new long[]{docByRef.get(refId)};
+            long[] docs = new long[more.size() + 1];
+            docs[0] = docByRef.get(refId);
+            for (int i = 0; i < more.size(); i++) docs[i + 1] = more.get(i);
+            return docs;
+        }
+    }
+
+    /**
+     * Builds the reference map by splitting the document ids across a fork-join pool, each part read
+     * in its own read transaction into shared arrays of ref_keys and ingest_timestamps, which are then
+     * interned in (ingest_timestamp, id) order
+     * @param concurrency The number of threads to read with, 0 for one per processor
+     */
+    private ReferenceMap buildReferenceMap(int concurrency) {
+        LongArrayList ids = new LongArrayList();
+        try (Transaction tx = db.beginTx();
+             ResourceIterator<Node> documentNodes = tx.findNodes(Label.label("Document"))) {
+            while (documentNodes.hasNext()) {
+                ids.add(documentNodes.next().getId());
+            }
+        }
+        ids.sortThis();
+
+        String[] refKeys = new String[ids.size()];
+        long[] timestamps = new long[ids.size()];
+        int parallelism = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        int partitionSize = Math.max(minPartitionSize, ids.size() / (parallelism * 4) + 1);
+        ReferenceMap refMap = new ReferenceMap();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            refMap.watermark = pool.invoke(new ReferenceMapTask(db, ids, refKeys, timestamps, 0, refKeys.length, partitionSize));
+        } finally {
+            pool.shutdown();
+        }
 
-                List<String> refs = new ArrayList<>();
+        Integer[] order = new Integer[refKeys.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> timestamps[i]).thenComparingLong(ids::get));
+        for (int i : order) {
+            refMap.docIds.add(ids.get(i));
+            refMap.timestamps.add(timestamps[i]);
+            if (refKeys[i] != null) refMap.add(refKeys[i], ids.get(i));
+        }
+        return refMap;
+    }
 
-                // Now create an entry for each ref in the ref list
-                for (String ref : (String[]) docNode.getProperty("ref_list")) {
-                    if (!refMap.containsKey(ref)) {
-                        refMap.put(ref, new ArrayList<>());
-                        refs.add(ref);
+    /**
+     * Reads ref_key and ingest_timestamp for a range of document ids, splitting the range until it is
+     * no bigger than partitionSize. Each ref_key and ingest_timestamp is written to refKeys and timestamps
+     * at the index of its document id, the ranges don't overlap. Returns the highest ingest_timestamp read.
+     */
+    private static class ReferenceMapTask extends RecursiveTask<Long> {
+        private final GraphDatabaseService db;
+        private final LongArrayList docIds;
+        private final String[] refKeys;
+        private final long[] timestamps;
+        private final int from;
+        private final int to;
+        private final int partitionSize;
+
+        private ReferenceMapTask(GraphDatabaseService db, LongArrayList docIds, String[] refKeys, long[] timestamps, int from, int to, int partitionSize) {
+            this.db = db;
+            this.docIds = docIds;
+            this.refKeys = refKeys;
+            this.timestamps = timestamps;
+            this.from = from;
+            this.to = to;
+            this.partitionSize = partitionSize;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from > partitionSize) {
+                int middle = (from + to) >>> 1;
+                ReferenceMapTask left = new ReferenceMapTask(db, docIds, refKeys, timestamps, from, middle, partitionSize);
+                ReferenceMapTask right = new ReferenceMapTask(db, docIds, refKeys, timestamps, middle, to, partitionSize);
+                left.fork();
+                long watermark = right.compute();
+                return Math.max(watermark, left.join());
+            }
+
+            long watermark = 0;
+            try (Transaction tx = db.beginTx()) {
+                for (int i = from; i < to; i++) {
+                    Node docNode;
+                    try {
+                        docNode = tx.getNodeById(docIds.get(i));
+                    } catch (NotFoundException e) {
+                        continue; // Removed since the ids were read
                     }
+                    refKeys[i] = refKey(docNode);
+                    timestamps[i] = ((Number) docNode.getProperty("ingest_timestamp", 0L)).longValue();
+                    watermark = Math.max(watermark, timestamps[i]);
                 }
+            }
+            return watermark;
+        }
+    }
+
+    public Util.Outgoing handleCreateUKNDocumentNodesAndNewReferences(long overlapSeconds, Transaction tx, Log log) {
+        int nodesCreated = 0;
+        int propertiesSet = 0;
+        int relationshipsCreated = 0;
+        int placeholdersReplaced = 0;
+
+        long watermark = PluginState.getLong(tx, referenceLinkingState, watermarkProperty, 0L);
+        long newWatermark = watermark;
 
-                mapDocsToReferences.put(docNode, refs);
+        List<Node> documentNodes = new ArrayList<>();
+        try (Result result = tx.execute("MATCH (d:Document) WHERE d.ingest_timestamp > $since RETURN d",
+                Util.map("since", watermark - overlapSeconds * 1000))) {
+            while (result.hasNext()) {
+                documentNodes.add((Node) result.next().get("d"));
             }
+        }
 
-            // Based on the map, empty lists mean no documents for that reference so create a UNKN_Document Node
-            // also create relationships
-            Map<String, Integer> uknDocsAndRefsOutput = createReferences(refMap, mapDocsToReferences, tx, log);
-            nodesCreated += uknDocsAndRefsOutput.get(nodesCreatedString);
-            propertiesSet += uknDocsAndRefsOutput.get(propertiesSetString);
-            relationshipsCreated += uknDocsAndRefsOutput.get(relationshipsCreatedString);
+        // Re-point references to placeholders that these documents now satisfy
+        for (Node docNode : documentNodes) {
+            newWatermark = Math.max(newWatermark, ((Number) docNode.getProperty("ingest_timestamp")).longValue());
 
-            return new Util.Outgoing(nodesCreated, relationshipsCreated, propertiesSet);
-        } catch (Exception e) {
-            throw new RuntimeException("Can't parse json", e);
+            // Placeholders for any variant of the ref_name, and one from before ref_key was stored
+            Set<Node> uknNodes = new HashSet<>();
+            String refKey = refKey(docNode);
+            if (!isNull(refKey)) tx.findNodes(Label.label("UKN_Document"), "ref_key", refKey).forEachRemaining(uknNodes::add);
+            Node exactUknNode = tx.findNode(Label.label("UKN_Document"), "doc_id", uknDocLabel + docNode.getProperty("ref_name", ""));
+            if (!isNull(exactUknNode)) uknNodes.add(exactUknNode);
+
+            for (Node uknNode : uknNodes) {
+                List<Relationship> uknRels = new ArrayList<>();
+                uknNode.getRelationships(Direction.INCOMING, RelationshipType.withName("REFERENCES_UKN")).forEach(uknRels::add);
+                for (Relationship uknRel : uknRels) {
+                    if (Util.createNonDuplicateRelationship(uknRel.getStartNode(), docNode, RelationshipType.withName("REFERENCES"), log) != null)
+                        relationshipsCreated++;
+                    uknRel.delete();
+                }
+                if (uknNode.getDegree() == 0) {
+                    uknNode.delete();
+                    placeholdersReplaced++;
+                }
+            }
         }
+
+        // Then link the documents' own references, each one a seek on the ref_key index
+        for (Node docNode : documentNodes) {
+            for (String ref : (String[]) docNode.getProperty("ref_list", new String[0])) {
+                List<Node> refNodes = findReferencedDocuments(ref, tx);
+                Map<String, Integer> tmpCounts;
+                if (refNodes.isEmpty()) {
+                    tmpCounts = createUKNDocsAndReferences(ref, docNode, tx);
+                } else {
+                    tmpCounts = createKnownDocReferences(refNodes, docNode);
+                }
+                nodesCreated += tmpCounts.get(nodesCreatedString);
+                propertiesSet += tmpCounts.get(propertiesSetString);
+                relationshipsCreated += tmpCounts.get(relationshipsCreatedString);
+            }
+        }
+
+        PluginState.setProperty(tx, referenceLinkingState, watermarkProperty, newWatermark);
+        log.info(String.format("Linked %d new or changed documents, replaced %d UKN_Document nodes", documentNodes.size(), placeholdersReplaced));
+
+        return new Util.Outgoing(nodesCreated, relationshipsCreated, propertiesSet);
     }
 
-    private Map<String, Integer> createReferences(Map<String, List<Node>> refMap, Map<Node, List<String>> mapDocsToReferences, Transaction tx, Log log) {
+    /**
+     * The documents a reference resolves to through the ref_key index. Documents stored before ref_key was, until
+     * policy.backfillRefKeys has run, are only found by their exact ref_name, so that is tried when ref_key finds nothing.
+     */
+    static List<Node> findReferencedDocuments(String ref, Transaction tx) {
+        List<Node> refNodes = tx.findNodes(Label.label("Document"), "ref_key", Util.refKey(ref)).stream().collect(Collectors.toList());
+        if (refNodes.isEmpty()) {
+            refNodes = tx.findNodes(Label.label("Document"), "ref_name", ref).stream().collect(Collectors.toList());
+        }
+        return refNodes;
+    }
+
+    private Map<String, Integer> createReferences(ReferenceMap refMap, int from, int to, Transaction tx, Log log) {
         int nodesCreated = 0;
         int propertiesSet = 0;
         int relationshipsCreated = 0;
 
-        try {
-            // Loop through doc nodes and create references to the nodes in the refMap, if no nodes exist then create a UKN_Document
-            for (Node docNode : mapDocsToReferences.keySet()) {
-                int tmpNodesCreated = 0;
-                int tmpPropertiesSet = 0;
-                int tmpRelationshipsCreated = 0;
-                for (String ref : (String[]) docNode.getProperty("ref_list")) {
-                    List<Node> refNodes = refMap.get(ref);
-                    Map<String, Integer> tmpCounts;
-                    if (refNodes.isEmpty()) {
-                        tmpCounts = createUKNDocsAndReferences(ref, docNode, tx);
-                    } else {
-                        tmpCounts = createKnownDocReferences(refNodes, docNode);
+        // Loop through doc nodes and create references to the nodes in the refMap, if no nodes exist then create a UKN_Document
+        for (int i = from; i < to; i++) {
+            Node docNode = tx.getNodeById(refMap.docIds.get(i));
+            for (String ref : (String[]) docNode.getProperty("ref_list")) {
+                long[] refNodeIds = refMap.docsFor(Util.refKey(ref));
+                Map<String, Integer> tmpCounts;
+                if (refNodeIds.length == 0) {
+                    tmpCounts = createUKNDocsAndReferences(ref, docNode, tx);
+                } else {
+                    List<Node> refNodes = new ArrayList<>(refNodeIds.length);
+                    for (long refNodeId : refNodeIds) {
+                        refNodes.add(tx.getNodeById(refNodeId));
                     }
-                    tmpNodesCreated += tmpCounts.get(nodesCreatedString);
-                    tmpPropertiesSet += tmpCounts.get(propertiesSetString);
-                    tmpRelationshipsCreated += tmpCounts.get(relationshipsCreatedString);
+                    tmpCounts = createKnownDocReferences(refNodes, docNode);
                 }
-                nodesCreated += tmpNodesCreated;
-                propertiesSet += tmpPropertiesSet;
-                relationshipsCreated += tmpRelationshipsCreated;
+                nodesCreated += tmpCounts.get(nodesCreatedString);
+                propertiesSet += tmpCounts.get(propertiesSetString);
+                relationshipsCreated += tmpCounts.get(relationshipsCreatedString);
             }
-        } catch (Exception e) {
-            log.error(e.toString());
         }
         return Map.ofEntries(
                 entry(nodesCreatedString, nodesCreated),
@@ -131,30 +458,25 @@ public class CreateUnknownDocsAndReferences {
         int propertiesSet = 0;
         int relationshipsCreated = 0;
 
-        String uknDocLabel = "UKN Document: ";
         String docIdLabel = "doc_id";
 
         try {
-            Node node = tx.findNode(Label.label("UKN_Document"), docIdLabel, uknDocLabel + ref);
+            Node node = findPlaceholder(ref, tx);
             if (isNull(node)) {
                 node = tx.createNode(Util.labels(Collections.singletonList("UKN_Document")));
-                node.setProperty(docIdLabel, uknDocLabel + ref);
+                node.setProperty(docIdLabel, uknDocId(ref));
                 propertiesSet++;
                 nodesCreated++;
+                setUKNDocumentProperties(node, ref);
+                propertiesSet += 7;
+            } else if (node.getProperty("ref_name", "").equals(ref)) {
+                setUKNDocumentProperties(node, ref);
+                propertiesSet += 7;
             }
-            String docType = ref.split(" ")[0].trim();
-            String docNum = ref.replaceFirst(docType, "").trim();
-            node.setProperty("ref_name", ref);
-            node.setProperty("type", "ukn_document");
-            node.setProperty("name", uknDocLabel + ref);
-            node.setProperty("title", uknDocLabel + ref);
-            node.setProperty("doc_type", docType);
-            node.setProperty("doc_num", docNum);
-            propertiesSet += 6;
             if (Util.createNonDuplicateRelationship(docNode, node, RelationshipType.withName("REFERENCES_UKN"), log) != null)
                 relationshipsCreated++;
         } catch (Exception e) {
-            log.error(e.toString());
+            throw new RuntimeException(String.format("Error creating UKN_Document for reference %s", ref), e);
         }
         return Map.ofEntries(
                 entry(nodesCreatedString, nodesCreated),
@@ -163,6 +485,49 @@ public class CreateUnknownDocsAndReferences {
         );
     }
 
+    /**
+     * The UKN_Document placeholder for a reference, or for another variant of it with the same ref_key,
+     * e.g. "AR 672-51" for "ar 672-51", null if there is none
+     */
+    static Node findPlaceholder(String ref, Transaction tx) {
+        Node node = tx.findNode(Label.label("UKN_Document"), "doc_id", uknDocId(ref));
+        if (isNull(node)) {
+            try (ResourceIterator<Node> variants = tx.findNodes(Label.label("UKN_Document"), "ref_key", Util.refKey(ref))) {
+                if (variants.hasNext()) node = variants.next();
+            }
+        }
+        return node;
+    }
+
+    static String uknDocId(String ref) {
+        return uknDocLabel + ref;
+    }
+
+    /**
+     * The ref_key of a Document or UKN_Document, computed from its ref_name if it was stored before ref_key was
+     */
+    static String refKey(Node node) {
+        Object refKey = node.getProperty("ref_key", null);
+        if (refKey instanceof String) return (String) refKey;
+        Object refName = node.getProperty("ref_name", null);
+        return refName instanceof String ? Util.refKey((String) refName) : null;
+    }
+
+    /**
+     * Sets the 7 properties a UKN_Document placeholder gets besides its doc_id
+     */
+    static void setUKNDocumentProperties(Node node, String ref) {
+        String docType = ref.split(" ")[0].trim();
+        String docNum = ref.replaceFirst(docType, "").trim();
+        node.setProperty("ref_name", ref);
+        node.setProperty("ref_key", Util.refKey(ref));
+        node.setProperty("type", "ukn_document");
+        node.setProperty("name", uknDocLabel + ref);
+        node.setProperty("title", uknDocLabel + ref);
+        node.setProperty("doc_type", docType);
+        node.setProperty("doc_num", docNum);
+    }
+
     private Map<String, Integer> createKnownDocReferences(List<Node> refNodes, Node docNode) {
         int nodesCreated = 0;
         int propertiesSet = 0;
@@ -174,7 +539,7 @@ public class CreateUnknownDocsAndReferences {
                     relationshipsCreated++;
             }
         } catch (Exception e) {
-            log.error(e.toString());
+            throw new RuntimeException(String.format("Error creating references from document node %d", docNode.getId()), e);
         }
         return Map.ofEntries(
                 entry(nodesCreatedString, nodesCreated),
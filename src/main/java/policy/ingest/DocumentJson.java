@@ -0,0 +1,161 @@
+package policy.ingest;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.util.*;
+
+import static policy.utils.JsonUtils.createParser;
+import static policy.utils.JsonUtils.getStringListFromJsonParser;
+
+/**
+ * The fields of a document json that the ingest uses, read with a streaming parser so the
+ * document is never held as a full JsonNode tree. Scalar fields are kept as small value nodes,
+ * the arrays and objects the ingest needs are read into lists and maps, and every other subtree
+ * (including the per-paragraph arrays under entities.entityPars) is skipped without being built.
+ */
+public class DocumentJson {
+
+    private final Map<String, JsonNode> scalars = new HashMap<>();
+    private List<String> keywords = new ArrayList<>();
+    private List<String> references = new ArrayList<>();
+    private final List<String> topics = new ArrayList<>();
+    private final Map<String, Integer> entityCounts = new LinkedHashMap<>();
+
+    private DocumentJson() {}
+
+    /**
+     * Parses a document json string token by token
+     * @param json The json string for the document
+     * @return DocumentJson
+     * @throws IOException if the string is not a json object
+     */
+    public static DocumentJson parse(String json) throws IOException {
+        DocumentJson document = new DocumentJson();
+        Set<String> entityNames = new LinkedHashSet<>();
+        Map<String, Integer> counts = new HashMap<>();
+
+        try (JsonParser parser = createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a json object for the document");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "keyw_5":
+                        document.keywords = getStringListFromJsonParser(parser);
+                        break;
+                    case "ref_list":
+                        document.references = getStringListFromJsonParser(parser);
+                        break;
+                    case "topics_rs":
+                        readTopics(parser, document.topics);
+                        break;
+                    case "entities":
+                        readEntities(parser, entityNames, counts);
+                        break;
+                    default:
+                        if (token.isScalarValue()) {
+                            document.scalars.put(field, parser.readValueAsTree());
+                        } else {
+                            parser.skipChildren();
+                        }
+                }
+            }
+        }
+
+        // Entities are keyed by entityPars, the counts come from entityCounts
+        for (String name : entityNames) {
+            document.entityCounts.put(name, counts.getOrDefault(name, 0));
+        }
+        return document;
+    }
+
+    private static void readTopics(JsonParser parser, List<String> topics) throws IOException {
+        if (parser.currentToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                parser.nextToken();
+                topics.add(readValueText(parser));
+            }
+        } else if (parser.currentToken() == JsonToken.START_ARRAY) {
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                topics.add(readValueText(parser));
+            }
+        }
+    }
+
+    private static void readEntities(JsonParser parser, Set<String> entityNames, Map<String, Integer> counts) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (field.equals("entityPars") && token == JsonToken.START_OBJECT) {
+                // Only the keys are used, the paragraph arrays are skipped
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    entityNames.add(parser.getCurrentName());
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            } else if (field.equals("entityCounts") && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    counts.put(name, parser.getValueAsInt(0));
+                    parser.skipChildren();
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static String readValueText(JsonParser parser) throws IOException {
+        if (parser.currentToken().isScalarValue()) {
+            return ((JsonNode) parser.readValueAsTree()).asText();
+        }
+        parser.skipChildren();
+        return "";
+    }
+
+    public String getText(String field, String defaultValue) {
+        JsonNode node = scalars.get(field);
+        return node == null ? defaultValue : node.asText(defaultValue);
+    }
+
+    public boolean getBoolean(String field, boolean defaultValue) {
+        JsonNode node = scalars.get(field);
+        return node == null ? defaultValue : node.asBoolean(defaultValue);
+    }
+
+    public int getInt(String field, int defaultValue) {
+        JsonNode node = scalars.get(field);
+        return node == null ? defaultValue : node.asInt(defaultValue);
+    }
+
+    public double getDouble(String field, double defaultValue) {
+        JsonNode node = scalars.get(field);
+        return node == null ? defaultValue : node.asDouble(defaultValue);
+    }
+
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    public List<String> getReferences() {
+        return references;
+    }
+
+    public List<String> getTopics() {
+        return topics;
+    }
+
+    public Map<String, Integer> getEntityCounts() {
+        return entityCounts;
+    }
+}
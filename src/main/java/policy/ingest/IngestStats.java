@@ -0,0 +1,23 @@
+package policy.ingest;
+
+import org.neo4j.procedure.*;
+import policy.utils.IngestMetrics;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+public class IngestStats {
+
+    /**
+     * Returns the counts and latencies recorded for each ingest phase and procedure
+     * @param reset Clears the stats after they are returned
+     * @return Stream of one row per phase or procedure
+     */
+    @Procedure(value = "policy.ingestStats", mode = Mode.READ)
+    @Description("Returns the counts and latency percentiles for each ingest phase and procedure, optionally resetting them.")
+    public Stream<IngestMetrics.PhaseSnapshot> ingestStats(@Name(value = "reset", defaultValue = "false") boolean reset) {
+        List<IngestMetrics.PhaseSnapshot> snapshots = IngestMetrics.snapshot();
+        if (reset) IngestMetrics.reset();
+        return snapshots.stream();
+    }
+}
@@ -0,0 +1,173 @@
+package policy.ingest;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+import policy.utils.IngestMetrics;
+import policy.utils.Util;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+import static java.util.Objects.isNull;
+
+public class PruneRevokedDocuments {
+
+    public static final String DELETE_MODE = "delete";
+    public static final String PLACEHOLDER_MODE = "placeholder";
+
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public GraphDatabaseService db;
+
+    /**
+     * Removes the documents with is_revoked_b = true and their relationships, committing every chunkSize documents,
+     * then deletes the Topic, Entity and UKN_Document nodes that only the pruned documents were linked to.
+     * A run that fails part way can be rerun, the committed chunks are no longer revoked documents.
+     * @param chunkSize The number of documents to prune per transaction
+     * @param mode "delete" to drop the documents, or "placeholder" to keep the references to them. The documents
+     *             referencing a revoked document are re-pointed to the unrevoked documents with the same ref_key,
+     *             or when there are none to a UKN_Document, as if it had never been ingested
+     * @return Stream of one row per committed chunk
+     */
+    @Procedure(value = "policy.pruneRevokedDocuments", mode = Mode.WRITE)
+    @Description("Deletes revoked documents in chunked transactions, or replaces them with UKN_Document nodes, and removes the Topic and Entity nodes left without relationships.")
+    public Stream<Util.PruneProgress> pruneRevokedDocuments(@Name(value = "chunkSize", defaultValue = "1000") long chunkSize,
+                                                           @Name(value = "mode", defaultValue = DELETE_MODE) String mode) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+        if (!DELETE_MODE.equals(mode) && !PLACEHOLDER_MODE.equals(mode)) {
+            throw new IllegalArgumentException(String.format("mode must be '%s' or '%s', got '%s'", DELETE_MODE, PLACEHOLDER_MODE, mode));
+        }
+        long start = IngestMetrics.start();
+        return handlePruneRevokedDocuments(chunkSize, PLACEHOLDER_MODE.equals(mode), log)
+                .onClose(() -> IngestMetrics.record("policy.pruneRevokedDocuments", start));
+    }
+
+    /**
+     * @return A lazy stream that prunes and commits one chunk per element
+     */
+    public Stream<Util.PruneProgress> handlePruneRevokedDocuments(long chunkSize, boolean placeholders, Log log) {
+        List<Long> revokedIds = new ArrayList<>();
+        try (Transaction tx = db.beginTx();
+             Result result = tx.execute("MATCH (d:Document) WHERE d.is_revoked_b = true RETURN id(d) AS id")) {
+            while (result.hasNext()) {
+                revokedIds.add((Long) result.next().get("id"));
+            }
+        }
+        Collections.sort(revokedIds);
+
+        int[] from = {0};
+        long[] chunk = {0};
+        return Util.lazyStream(() -> {
+            if (from[0] >= revokedIds.size()) return null;
+            List<Long> chunkIds = revokedIds.subList(from[0], (int) Math.min(revokedIds.size(), from[0] + chunkSize));
+            from[0] += chunkIds.size();
+            long chunkCursor = chunkIds.get(chunkIds.size() - 1);
+
+            try (Transaction tx = db.beginTx()) {
+                Util.PruneProgress out = pruneChunk(chunk[0], chunkIds, chunkCursor, placeholders, tx);
+                tx.commit();
+
+                log.info(String.format("Pruned chunk %d, %d revoked documents up to node %d", chunk[0], out.documentsPruned.longValue(), chunkCursor));
+                chunk[0]++;
+                return out;
+            } catch (Exception e) {
+                throw new RuntimeException(String.format("Error pruning revoked documents for chunk %d, rerun to resume", chunk[0]), e);
+            }
+        });
+    }
+
+    private Util.PruneProgress pruneChunk(long chunk, List<Long> docIds, long cursor, boolean placeholders, Transaction tx) {
+        int documentsPruned = 0;
+        int placeholdersCreated = 0;
+        int relationshipsDeleted = 0;
+        int topicsDeleted = 0;
+        int entitiesDeleted = 0;
+        int placeholdersDeleted = 0;
+        int referencesRepointed = 0;
+
+        // Nodes the pruned documents were linked to, checked for orphans once the whole chunk is gone
+        Set<Node> neighbours = new HashSet<>();
+        Label uknLabel = Label.label("UKN_Document");
+
+        for (long docId : docIds) {
+            Node docNode;
+            try {
+                docNode = tx.getNodeById(docId);
+            } catch (NotFoundException e) {
+                continue; // Removed since the ids were read
+            }
+            // Un-revoked or re-ingested since the ids were read
+            if (!docNode.hasLabel(Label.label("Document")) || !Boolean.TRUE.equals(docNode.getProperty("is_revoked_b", false))) continue;
+
+            // References move to the documents that still have the ref_key, and only without one to a placeholder,
+            // which is only created if the document is referenced
+            String refName = (String) docNode.getProperty("ref_name", null);
+            List<Node> survivors = placeholders && !isNull(refName) ? otherDocuments(refName, docNode, tx) : List.of();
+            boolean needsPlaceholder = placeholders && !isNull(refName) && survivors.isEmpty();
+            Node placeholder = null;
+
+            List<Relationship> rels = new ArrayList<>();
+            docNode.getRelationships().forEach(rels::add);
+            for (Relationship rel : rels) {
+                Node other = rel.getOtherNode(docNode);
+                boolean citation = rel.isType(RelationshipType.withName("REFERENCES")) && rel.getEndNode().equals(docNode) && !other.equals(docNode);
+                if (citation) {
+                    for (Node survivor : survivors) {
+                        if (!other.equals(survivor) && Util.createNonDuplicateRelationship(other, survivor, RelationshipType.withName("REFERENCES"), log) != null) {
+                            referencesRepointed++;
+                        }
+                    }
+                }
+                if (needsPlaceholder && citation) {
+                    if (isNull(placeholder)) {
+                        placeholder = CreateUnknownDocsAndReferences.findPlaceholder(refName, tx);
+                        if (isNull(placeholder)) {
+                            placeholder = tx.createNode(uknLabel);
+                            placeholder.setProperty("doc_id", CreateUnknownDocsAndReferences.uknDocId(refName));
+                            CreateUnknownDocsAndReferences.setUKNDocumentProperties(placeholder, refName);
+                            placeholdersCreated++;
+                        }
+                    }
+                    Util.createNonDuplicateRelationship(other, placeholder, RelationshipType.withName("REFERENCES_UKN"), log);
+                }
+                if (other.hasLabel(Label.label("Topic")) || other.hasLabel(Label.label("Entity")) || other.hasLabel(uknLabel)) {
+                    neighbours.add(other);
+                }
+                rel.delete();
+                relationshipsDeleted++;
+            }
+            docNode.delete();
+            documentsPruned++;
+        }
+
+        for (Node node : neighbours) {
+            if (node.getDegree() > 0) continue;
+            if (node.hasLabel(Label.label("Topic"))) topicsDeleted++;
+            else if (node.hasLabel(Label.label("Entity"))) entitiesDeleted++;
+            else placeholdersDeleted++;
+            node.delete();
+        }
+
+        return new Util.PruneProgress(chunk, documentsPruned, cursor, placeholdersCreated, relationshipsDeleted,
+                topicsDeleted, entitiesDeleted, placeholdersDeleted, referencesRepointed);
+    }
+
+    /**
+     * The other, unrevoked documents the reference linking resolves the ref_name to, which references to the
+     * document are re-pointed to
+     */
+    private List<Node> otherDocuments(String refName, Node docNode, Transaction tx) {
+        List<Node> documents = new ArrayList<>();
+        for (Node node : CreateUnknownDocsAndReferences.findReferencedDocuments(refName, tx)) {
+            if (!node.equals(docNode) && !Boolean.TRUE.equals(node.getProperty("is_revoked_b", false))) documents.add(node);
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,687 @@
+package policy.projection;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.map.primitive.MutableIntObjectMap;
+import org.eclipse.collections.api.map.primitive.MutableLongByteMap;
+import org.eclipse.collections.api.map.primitive.MutableLongIntMap;
+import org.eclipse.collections.api.set.primitive.MutableIntSet;
+import org.eclipse.collections.api.set.primitive.MutableLongSet;
+import org.eclipse.collections.impl.list.mutable.primitive.ByteArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongByteHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventListener;
+import org.neo4j.io.memory.ByteBuffers;
+import org.neo4j.memory.LocalMemoryTracker;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A read-only copy of the policy graph topology, the Document, UKN_Document, Topic and Entity nodes and the
+ * REFERENCES, REFERENCES_UKN, CONTAINS and MENTIONS relationships between them, for analytics that would
+ * otherwise walk the graph one relationship at a time through the transactional API.
+ * Nodes get dense int indexes, in node id order, through a primitive id map. The adjacency of each relationship
+ * type is kept outgoing and incoming as compressed sparse rows, an offset per node into an array of neighbor
+ * indexes sorted within each row, in direct buffers allocated outside the heap.
+ * Commits after the build are applied by the RefreshListener to a small on-heap overlay of added nodes, added
+ * and removed relationships, which the read methods merge with the rows. Rebuilding folds the overlay back in.
+ * The overlay treats the relationships between two nodes of one type as a set.
+ */
+public class GraphProjection {
+
+    public static final List<String> LABELS = List.of("Document", "UKN_Document", "Topic", "Entity");
+    public static final List<String> TYPES = List.of("REFERENCES", "REFERENCES_UKN", "CONTAINS", "MENTIONS");
+
+    private static final Map<String, RefreshListener> LISTENERS = new ConcurrentHashMap<>();
+    private static final RelationshipType[] RELATIONSHIP_TYPES = TYPES.stream().map(RelationshipType::withName).toArray(RelationshipType[]::new);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LocalMemoryTracker memoryTracker = new LocalMemoryTracker();
+    private long buildMillis;
+    private boolean closed = false;
+
+    // Set once by load
+    private int baseNodeCount;
+    private MutableLongIntMap indexById;
+    private ByteBuffer nodeIds;
+    private ByteBuffer nodeLabels;
+    private final Csr[] outgoing = new Csr[TYPES.size()];
+    private final Csr[] incoming = new Csr[TYPES.size()];
+
+    // The overlay
+    private final LongArrayList addedNodeIds = new LongArrayList();
+    private final ByteArrayList addedNodeLabels = new ByteArrayList();
+    private final MutableIntSet removedNodes = new IntHashSet();
+    private final List<MutableIntObjectMap<IntArrayList>> addedOutgoing = new ArrayList<>();
+    private final List<MutableIntObjectMap<IntArrayList>> addedIncoming = new ArrayList<>();
+    private final List<MutableLongSet> removedRelationships = new ArrayList<>();
+
+    private GraphProjection() {
+        for (int type = 0; type < TYPES.size(); type++) {
+            addedOutgoing.add(new IntObjectHashMap<>());
+            addedIncoming.add(new IntObjectHashMap<>());
+            removedRelationships.add(new LongHashSet());
+        }
+    }
+
+    /**
+     * @return The projection of the database, or null if none is built
+     */
+    public static GraphProjection forDatabase(String databaseName) {
+        RefreshListener listener = LISTENERS.get(databaseName);
+        return listener == null ? null : listener.projection;
+    }
+
+    static void register(String databaseName, RefreshListener listener) {
+        LISTENERS.put(databaseName, listener);
+    }
+
+    static void unregister(String databaseName) {
+        RefreshListener listener = LISTENERS.remove(databaseName);
+        if (listener != null) listener.drop();
+    }
+
+    /**
+     * Builds the projection of the database, replacing and releasing the previous one. The build waits for the
+     * commits already past beforeCommit, then transactions that commit during the build are held back and applied
+     * once it is done, so none are missed.
+     */
+    public static GraphProjection build(String databaseName, Transaction tx) {
+        RefreshListener listener = LISTENERS.get(databaseName);
+        if (listener == null) {
+            throw new IllegalStateException(String.format("Graph projections are not enabled for database %s", databaseName));
+        }
+        return listener.build(tx);
+    }
+
+    /**
+     * Releases the projection of the database
+     * @return True if there was one
+     */
+    public static boolean drop(String databaseName) {
+        RefreshListener listener = LISTENERS.get(databaseName);
+        return listener != null && listener.drop();
+    }
+
+    private static GraphProjection load(Transaction tx) {
+        long start = System.currentTimeMillis();
+        GraphProjection projection = new GraphProjection();
+        try {
+            projection.loadNodes(tx);
+            for (int type = 0; type < TYPES.size(); type++) {
+                projection.outgoing[type] = projection.loadRelationships(tx, type);
+                projection.incoming[type] = projection.outgoing[type].transpose();
+            }
+            projection.buildMillis = System.currentTimeMillis() - start;
+            return projection;
+        } catch (RuntimeException | OutOfMemoryError e) {
+            projection.close();
+            throw e;
+        }
+    }
+
+    private void loadNodes(Transaction tx) {
+        MutableLongByteMap labelsById = new LongByteHashMap();
+        for (int label = 0; label < LABELS.size(); label++) {
+            byte bit = (byte) (1 << label);
+            try (ResourceIterator<Node> nodes = tx.findNodes(Label.label(LABELS.get(label)))) {
+                while (nodes.hasNext()) {
+                    labelsById.updateValue(nodes.next().getId(), (byte) 0, labels -> (byte) (labels | bit));
+                }
+            }
+        }
+        long[] ids = labelsById.keySet().toSortedArray();
+        baseNodeCount = ids.length;
+        indexById = new LongIntHashMap(ids.length);
+        nodeIds = allocate((long) ids.length * Long.BYTES);
+        nodeLabels = allocate(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            indexById.put(ids[i], i);
+            nodeIds.putLong(i * Long.BYTES, ids[i]);
+            nodeLabels.put(i, labelsById.get(ids[i]));
+        }
+    }
+
+    /**
+     * Writes the outgoing rows of one type straight into direct buffers, only a row at a time is on the heap.
+     * The targets are sized from the degree counts, which include relationships to nodes that are not projected,
+     * and trimmed once the rows are written.
+     */
+    private Csr loadRelationships(Transaction tx, int type) {
+        RelationshipType relationshipType = RELATIONSHIP_TYPES[type];
+        long capacity = 0;
+        for (int i = 0; i < baseNodeCount; i++) {
+            capacity += tx.getNodeById(nodeIds.getLong(i * Long.BYTES)).getDegree(relationshipType, Direction.OUTGOING);
+        }
+        ByteBuffer offsets = allocate((long) (baseNodeCount + 1) * Integer.BYTES);
+        ByteBuffer targets = allocate(capacity * Integer.BYTES);
+
+        IntArrayList row = new IntArrayList();
+        long size = 0;
+        for (int i = 0; i < baseNodeCount; i++) {
+            for (Relationship rel : tx.getNodeById(nodeIds.getLong(i * Long.BYTES)).getRelationships(Direction.OUTGOING, relationshipType)) {
+                int target = indexById.getIfAbsent(rel.getEndNodeId(), -1);
+                if (target >= 0) row.add(target);
+            }
+            // Relationships created since the degrees were read
+            if (size + row.size() > capacity) {
+                capacity = Math.max(capacity * 2, size + row.size());
+                targets = resize(targets, capacity * Integer.BYTES, size * Integer.BYTES);
+            }
+            row.sortThis();
+            for (int j = 0; j < row.size(); j++) targets.putInt((int) (size++ * Integer.BYTES), row.get(j));
+            offsets.putInt((i + 1) * Integer.BYTES, (int) size);
+            row.clear();
+        }
+        if (size < capacity) targets = resize(targets, size * Integer.BYTES, size * Integer.BYTES);
+        return new Csr(baseNodeCount, offsets, targets);
+    }
+
+    /**
+     * The number of node indexes, including the indexes of removed nodes
+     */
+    public int nodeCount() {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            return baseNodeCount + addedNodeIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The node's index, or -1 if it is not in the projection
+     */
+    public int index(long nodeId) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            int index = indexById.getIfAbsent(nodeId, -1);
+            return index < 0 || removedNodes.contains(index) ? -1 : index;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long nodeId(int index) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            return index < baseNodeCount ? nodeIds.getLong(index * Long.BYTES) : addedNodeIds.get(index - baseNodeCount);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean hasLabel(int index, String label) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            return !removedNodes.contains(index) && (labels(index) & (1 << LABELS.indexOf(label))) != 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Calls the procedure with the index of each neighbor of the node through relationships of the type
+     */
+    public void forEachNeighbor(String type, Direction direction, int index, IntProcedure procedure) {
+        int typeIndex = typeIndex(type);
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            if (direction != Direction.INCOMING) forEachNeighbor(typeIndex, true, index, procedure);
+            if (direction != Direction.OUTGOING) forEachNeighbor(typeIndex, false, index, procedure);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int degree(String type, Direction direction, int index) {
+        int[] degree = new int[1];
+        forEachNeighbor(type, direction, index, neighbor -> degree[0]++);
+        return degree[0];
+    }
+
+    private void forEachNeighbor(int type, boolean outgoingDirection, int index, IntProcedure procedure) {
+        MutableLongSet removed = removedRelationships.get(type);
+        if (index < baseNodeCount) {
+            Csr csr = outgoingDirection ? outgoing[type] : incoming[type];
+            for (int i = csr.start(index), end = csr.end(index); i < end; i++) {
+                int neighbor = csr.target(i);
+                if (!removed.isEmpty() && removed.contains(outgoingDirection ? pack(index, neighbor) : pack(neighbor, index))) continue;
+                procedure.value(neighbor);
+            }
+        }
+        IntArrayList added = (outgoingDirection ? addedOutgoing : addedIncoming).get(type).get(index);
+        if (added != null) added.forEach(procedure);
+    }
+
+    /**
+     * Applies a committed transaction's changes to the overlay
+     */
+    void apply(Delta delta) {
+        lock.writeLock().lock();
+        try {
+            if (closed) return;
+            delta.assignedLabels.forEachKeyValue((nodeId, bits) -> {
+                int index = indexById.getIfAbsent(nodeId, -1);
+                if (index < 0) {
+                    index = baseNodeCount + addedNodeIds.size();
+                    indexById.put(nodeId, index);
+                    addedNodeIds.add(nodeId);
+                    addedNodeLabels.add((byte) 0);
+                }
+                setLabels(index, (byte) (labels(index) | bits));
+                removedNodes.remove(index);
+            });
+            delta.removedLabels.forEachKeyValue((nodeId, bits) -> {
+                int index = indexById.getIfAbsent(nodeId, -1);
+                if (index < 0) return;
+                byte labels = (byte) (labels(index) & ~bits);
+                setLabels(index, labels);
+                if (labels == 0) removedNodes.add(index);
+            });
+            delta.deletedNodes.forEach(nodeId -> {
+                int index = indexById.getIfAbsent(nodeId, -1);
+                if (index >= 0) removedNodes.add(index);
+            });
+
+            for (int i = 0; i < delta.deletedRelationships.size(); i += 3) {
+                int type = (int) delta.deletedRelationships.get(i);
+                int source = indexById.getIfAbsent(delta.deletedRelationships.get(i + 1), -1);
+                int target = indexById.getIfAbsent(delta.deletedRelationships.get(i + 2), -1);
+                if (source < 0 || target < 0) continue;
+                if (removeAdded(type, source, target)) continue;
+                if (source < baseNodeCount && outgoing[type].contains(source, target)) removedRelationships.get(type).add(pack(source, target));
+            }
+            for (int i = 0; i < delta.createdRelationships.size(); i += 3) {
+                int type = (int) delta.createdRelationships.get(i);
+                int source = indexById.getIfAbsent(delta.createdRelationships.get(i + 1), -1);
+                int target = indexById.getIfAbsent(delta.createdRelationships.get(i + 2), -1);
+                if (source < 0 || target < 0) continue;
+                // Already in the rows when the build read it after this commit
+                removedRelationships.get(type).remove(pack(source, target));
+                if (source < baseNodeCount && outgoing[type].contains(source, target)) continue;
+                IntArrayList added = addedOutgoing.get(type).getIfAbsentPut(source, IntArrayList::new);
+                if (added.contains(target)) continue;
+                added.add(target);
+                addedIncoming.get(type).getIfAbsentPut(target, IntArrayList::new).add(source);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean removeAdded(int type, int source, int target) {
+        IntArrayList added = addedOutgoing.get(type).get(source);
+        if (added == null || !added.remove(target)) return false;
+        if (added.isEmpty()) addedOutgoing.get(type).remove(source);
+        IntArrayList addedSources = addedIncoming.get(type).get(target);
+        addedSources.remove(source);
+        if (addedSources.isEmpty()) addedIncoming.get(type).remove(target);
+        return true;
+    }
+
+    public Stats stats() {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            Map<String, Object> nodesByLabel = new LinkedHashMap<>();
+            long[] labelCounts = new long[LABELS.size()];
+            int nodeCount = baseNodeCount + addedNodeIds.size();
+            for (int index = 0; index < nodeCount; index++) {
+                if (removedNodes.contains(index)) continue;
+                byte labels = labels(index);
+                for (int label = 0; label < LABELS.size(); label++) {
+                    if ((labels & (1 << label)) != 0) labelCounts[label]++;
+                }
+            }
+            for (int label = 0; label < LABELS.size(); label++) nodesByLabel.put(LABELS.get(label), labelCounts[label]);
+
+            Map<String, Object> relationshipsByType = new LinkedHashMap<>();
+            long relationships = 0;
+            long overlayRelationships = 0;
+            long removed = 0;
+            for (int type = 0; type < TYPES.size(); type++) {
+                long added = addedOutgoing.get(type).sumOfInt(IntArrayList::size);
+                long count = outgoing[type].relationshipCount() + added - removedRelationships.get(type).size();
+                relationshipsByType.put(TYPES.get(type), count);
+                relationships += count;
+                overlayRelationships += added;
+                removed += removedRelationships.get(type).size();
+            }
+            return new Stats(true, nodeCount - removedNodes.size(), relationships, memoryTracker.usedNativeMemory(),
+                    addedNodeIds.size(), overlayRelationships, removed, buildMillis, nodesByLabel, relationshipsByType);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static Stats emptyStats() {
+        return new Stats(false, 0, 0, 0, 0, 0, 0, 0, Map.of(), Map.of());
+    }
+
+    /**
+     * Releases the off-heap memory, reads after this fail
+     */
+    void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed) return;
+            closed = true;
+            // A failed load leaves some of them unset
+            if (nodeIds != null) release(nodeIds);
+            if (nodeLabels != null) release(nodeLabels);
+            for (int type = 0; type < TYPES.size(); type++) {
+                if (outgoing[type] != null) outgoing[type].close();
+                if (incoming[type] != null) incoming[type].close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("The graph projection was dropped or rebuilt");
+    }
+
+    private byte labels(int index) {
+        return index < baseNodeCount ? nodeLabels.get(index) : addedNodeLabels.get(index - baseNodeCount);
+    }
+
+    private void setLabels(int index, byte labels) {
+        if (index < baseNodeCount) nodeLabels.put(index, labels);
+        else addedNodeLabels.set(index - baseNodeCount, labels);
+    }
+
+    private static int typeIndex(String type) {
+        int typeIndex = TYPES.indexOf(type);
+        if (typeIndex < 0) throw new IllegalArgumentException(String.format("%s is not projected, expected one of %s", type, TYPES));
+        return typeIndex;
+    }
+
+    private static long pack(int source, int target) {
+        return ((long) source << 32) | (target & 0xFFFFFFFFL);
+    }
+
+    private ByteBuffer allocate(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException(String.format("The graph is too large to project, an array needs %d bytes", bytes));
+        }
+        synchronized (memoryTracker) {
+            return ByteBuffers.allocateDirect((int) Math.max(bytes, 1), memoryTracker).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    private void release(ByteBuffer buffer) {
+        synchronized (memoryTracker) {
+            ByteBuffers.releaseBuffer(buffer, memoryTracker);
+        }
+    }
+
+    /**
+     * Moves the first used bytes of the buffer into a new one of the given size and releases the old one
+     */
+    private ByteBuffer resize(ByteBuffer buffer, long bytes, long used) {
+        ByteBuffer resized = allocate(bytes);
+        ByteBuffer source = buffer.duplicate();
+        source.position(0).limit((int) used);
+        resized.put(source).clear();
+        release(buffer);
+        return resized;
+    }
+
+    /**
+     * One direction of one relationship type, the neighbors of node i are targets[offsets[i]] to targets[offsets[i + 1]]
+     */
+    private class Csr {
+        private final int nodeCount;
+        private final ByteBuffer offsets;
+        private final ByteBuffer targets;
+
+        private Csr(int nodeCount, ByteBuffer offsets, ByteBuffer targets) {
+            this.nodeCount = nodeCount;
+            this.offsets = offsets;
+            this.targets = targets;
+        }
+
+        int start(int index) {
+            return offsets.getInt(index * Integer.BYTES);
+        }
+
+        int end(int index) {
+            return offsets.getInt((index + 1) * Integer.BYTES);
+        }
+
+        int target(int i) {
+            return targets.getInt(i * Integer.BYTES);
+        }
+
+        long relationshipCount() {
+            return start(nodeCount);
+        }
+
+        boolean contains(int index, int target) {
+            int low = start(index);
+            int high = end(index) - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int value = target(middle);
+                if (value < target) low = middle + 1;
+                else if (value > target) high = middle - 1;
+                else return true;
+            }
+            return false;
+        }
+
+        /**
+         * The other direction, rows come out sorted since the sources are visited in order. The new offsets
+         * double as the write position of each row while it is filled, then are shifted back into place.
+         */
+        Csr transpose() {
+            ByteBuffer transposedOffsets = allocate((long) (nodeCount + 1) * Integer.BYTES);
+            ByteBuffer transposedTargets = allocate(relationshipCount() * Integer.BYTES);
+            for (int i = 0; i < relationshipCount(); i++) {
+                int index = (target(i) + 1) * Integer.BYTES;
+                transposedOffsets.putInt(index, transposedOffsets.getInt(index) + 1);
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                int index = (i + 1) * Integer.BYTES;
+                transposedOffsets.putInt(index, transposedOffsets.getInt(index) + transposedOffsets.getInt(i * Integer.BYTES));
+            }
+            for (int source = 0; source < nodeCount; source++) {
+                for (int i = start(source), end = end(source); i < end; i++) {
+                    int index = target(i) * Integer.BYTES;
+                    int position = transposedOffsets.getInt(index);
+                    transposedTargets.putInt(position * Integer.BYTES, source);
+                    transposedOffsets.putInt(index, position + 1);
+                }
+            }
+            // Each row's position ended at the next row's start
+            for (int i = nodeCount; i > 0; i--) transposedOffsets.putInt(i * Integer.BYTES, transposedOffsets.getInt((i - 1) * Integer.BYTES));
+            transposedOffsets.putInt(0, 0);
+            return new Csr(nodeCount, transposedOffsets, transposedTargets);
+        }
+
+        void close() {
+            release(offsets);
+            release(targets);
+        }
+    }
+
+    /**
+     * The projected labels and relationships a transaction changed, collected before the commit while deleted
+     * entities can still be read. Relationships are (type, start node id, end node id) triples.
+     */
+    static class Delta {
+        private final MutableLongByteMap assignedLabels = new LongByteHashMap();
+        private final MutableLongByteMap removedLabels = new LongByteHashMap();
+        private final LongArrayList deletedNodes = new LongArrayList();
+        private final LongArrayList createdRelationships = new LongArrayList();
+        private final LongArrayList deletedRelationships = new LongArrayList();
+
+        static Delta of(TransactionData data) {
+            Delta delta = new Delta();
+            for (LabelEntry entry : data.assignedLabels()) addLabel(delta.assignedLabels, entry);
+            for (LabelEntry entry : data.removedLabels()) addLabel(delta.removedLabels, entry);
+            for (Node node : data.deletedNodes()) delta.deletedNodes.add(node.getId());
+            for (Relationship rel : data.createdRelationships()) addRelationship(delta.createdRelationships, rel);
+            for (Relationship rel : data.deletedRelationships()) addRelationship(delta.deletedRelationships, rel);
+            return delta;
+        }
+
+        private static void addLabel(MutableLongByteMap labels, LabelEntry entry) {
+            int label = LABELS.indexOf(entry.label().name());
+            if (label < 0) return;
+            labels.updateValue(entry.node().getId(), (byte) 0, bits -> (byte) (bits | (1 << label)));
+        }
+
+        private static void addRelationship(LongArrayList relationships, Relationship rel) {
+            int type = TYPES.indexOf(rel.getType().name());
+            if (type < 0) return;
+            relationships.add(type);
+            relationships.add(rel.getStartNodeId());
+            relationships.add(rel.getEndNodeId());
+        }
+    }
+
+    /**
+     * Keeps the database's projection up to date. Registered for every database by GraphProjectionExtensionFactory,
+     * it does nothing until a projection is built.
+     */
+    static class RefreshListener implements TransactionEventListener<Delta> {
+        private volatile GraphProjection projection;
+        // Deltas committed while a build is running, null when none is
+        private List<Delta> pending;
+        // Transactions past beforeCommit without a delta, because there was nothing to refresh, that haven't finished
+        private int uncollected = 0;
+
+        @Override
+        public Delta beforeCommit(TransactionData data, Transaction transaction, GraphDatabaseService databaseService) {
+            synchronized (this) {
+                if (projection == null && pending == null) {
+                    uncollected++;
+                    return null;
+                }
+            }
+            return Delta.of(data);
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, Delta delta, GraphDatabaseService databaseService) {
+            if (delta == null) {
+                finishUncollected();
+                return;
+            }
+            GraphProjection current;
+            synchronized (this) {
+                if (pending != null) {
+                    pending.add(delta);
+                    return;
+                }
+                current = projection;
+            }
+            if (current != null) current.apply(delta);
+        }
+
+        @Override
+        public void afterRollback(TransactionData data, Delta delta, GraphDatabaseService databaseService) {
+            if (delta == null) finishUncollected();
+        }
+
+        private synchronized void finishUncollected() {
+            if (--uncollected == 0) notifyAll();
+        }
+
+        /**
+         * Holds back the deltas from now on, then waits for the transactions that committed without one, so the
+         * build reads their changes
+         */
+        private synchronized void startBuild() {
+            if (pending != null) throw new IllegalStateException("A graph projection is already being built");
+            pending = new ArrayList<>();
+            try {
+                while (uncollected > 0) wait();
+            } catch (InterruptedException e) {
+                pending = null;
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted waiting for transactions to commit before building the graph projection", e);
+            }
+        }
+
+        GraphProjection build(Transaction tx) {
+            startBuild();
+            GraphProjection built;
+            try {
+                built = load(tx);
+            } catch (RuntimeException | OutOfMemoryError e) {
+                synchronized (this) {
+                    pending = null;
+                }
+                throw e;
+            }
+            GraphProjection previous;
+            synchronized (this) {
+                for (Delta delta : pending) built.apply(delta);
+                pending = null;
+                previous = projection;
+                projection = built;
+            }
+            if (previous != null) previous.close();
+            return built;
+        }
+
+        boolean drop() {
+            GraphProjection previous;
+            synchronized (this) {
+                previous = projection;
+                projection = null;
+            }
+            if (previous == null) return false;
+            previous.close();
+            return true;
+        }
+    }
+
+    public static class Stats {
+        public final boolean built;
+        public final Number nodes;
+        public final Number relationships;
+        public final Number offHeapBytes;
+        public final Number overlayNodes;
+        public final Number overlayRelationships;
+        public final Number removedRelationships;
+        public final Number buildMillis;
+        public final Map<String, Object> nodesByLabel;
+        public final Map<String, Object> relationshipsByType;
+
+        public Stats(boolean built, long nodes, long relationships, long offHeapBytes, long overlayNodes, long overlayRelationships,
+                     long removedRelationships, long buildMillis, Map<String, Object> nodesByLabel, Map<String, Object> relationshipsByType) {
+            this.built = built;
+            this.nodes = nodes;
+            this.relationships = relationships;
+            this.offHeapBytes = offHeapBytes;
+            this.overlayNodes = overlayNodes;
+            this.overlayRelationships = overlayRelationships;
+            this.removedRelationships = removedRelationships;
+            this.buildMillis = buildMillis;
+            this.nodesByLabel = nodesByLabel;
+            this.relationshipsByType = relationshipsByType;
+        }
+    }
+}
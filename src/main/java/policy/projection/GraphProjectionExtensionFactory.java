@@ -0,0 +1,54 @@
+package policy.projection;
+
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.kernel.extension.ExtensionFactory;
+import org.neo4j.kernel.extension.ExtensionType;
+import org.neo4j.kernel.extension.context.ExtensionContext;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.kernel.lifecycle.Lifecycle;
+import org.neo4j.kernel.lifecycle.LifecycleAdapter;
+
+import static org.neo4j.configuration.GraphDatabaseSettings.SYSTEM_DATABASE_NAME;
+
+/**
+ * Registers the transaction listener that keeps each database's GraphProjection up to date, and releases the
+ * projection when the database stops. Loaded by Neo4j through META-INF/services like any other kernel extension.
+ */
+public class GraphProjectionExtensionFactory extends ExtensionFactory<GraphProjectionExtensionFactory.Dependencies> {
+
+    public interface Dependencies {
+        GraphDatabaseAPI graphDatabaseAPI();
+        DatabaseManagementService databaseManagementService();
+    }
+
+    public GraphProjectionExtensionFactory() {
+        super(ExtensionType.DATABASE, "policyGraphProjection");
+    }
+
+    @Override
+    public Lifecycle newInstance(ExtensionContext context, Dependencies dependencies) {
+        String databaseName = dependencies.graphDatabaseAPI().databaseName();
+        DatabaseManagementService managementService = dependencies.databaseManagementService();
+
+        return new LifecycleAdapter() {
+            private GraphProjection.RefreshListener listener;
+
+            @Override
+            public void start() {
+                if (SYSTEM_DATABASE_NAME.equals(databaseName)) return;
+
+                listener = new GraphProjection.RefreshListener();
+                managementService.registerTransactionEventListener(databaseName, listener);
+                GraphProjection.register(databaseName, listener);
+            }
+
+            @Override
+            public void stop() {
+                if (listener == null) return;
+                GraphProjection.unregister(databaseName);
+                managementService.unregisterTransactionEventListener(databaseName, listener);
+                listener = null;
+            }
+        };
+    }
+}
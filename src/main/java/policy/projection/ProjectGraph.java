@@ -0,0 +1,66 @@
+package policy.projection;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+
+import java.util.stream.Stream;
+
+public class ProjectGraph {
+
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Transaction tx;
+
+    /**
+     * Loads the Document, UKN_Document, Topic and Entity nodes and the REFERENCES, REFERENCES_UKN, CONTAINS and
+     * MENTIONS relationships into an off-heap GraphProjection, replacing the previous one. It is kept up to date
+     * from then on, rebuild it after large ingests to fold the changes into the compressed rows.
+     * @return The projection's stats
+     */
+    @Procedure(value = "policy.buildProjection", mode = Mode.READ)
+    @Description("Builds the off-heap adjacency projection of documents, topics and entities, which is then refreshed on every commit.")
+    public Stream<GraphProjection.Stats> buildProjection() {
+        try {
+            GraphProjection.Stats stats = GraphProjection.build(db.databaseName(), tx).stats();
+            log.info(String.format("Built graph projection of %d nodes and %d relationships in %d ms, %d bytes off heap",
+                    stats.nodes, stats.relationships, stats.buildMillis, stats.offHeapBytes));
+            return Stream.of(stats);
+        } catch (OutOfMemoryError e) {
+            throw new RuntimeException("Not enough memory to build the graph projection", e);
+        }
+    }
+
+    /**
+     * @return The size and memory of the projection, built is false if there is none
+     */
+    @Procedure(value = "policy.projectionStats", mode = Mode.READ)
+    @Description("Returns the node and relationship counts, off-heap bytes and pending changes of the graph projection.")
+    public Stream<GraphProjection.Stats> projectionStats() {
+        GraphProjection projection = GraphProjection.forDatabase(db.databaseName());
+        return Stream.of(projection == null ? GraphProjection.emptyStats() : projection.stats());
+    }
+
+    /**
+     * Releases the projection's memory
+     * @return The stats of the dropped projection, built is false if there was none
+     */
+    @Procedure(value = "policy.dropProjection", mode = Mode.READ)
+    @Description("Drops the graph projection and frees its off-heap memory.")
+    public Stream<GraphProjection.Stats> dropProjection() {
+        GraphProjection projection = GraphProjection.forDatabase(db.databaseName());
+        if (projection == null) return Stream.of(GraphProjection.emptyStats());
+        GraphProjection.Stats stats = projection.stats();
+        if (!GraphProjection.drop(db.databaseName())) return Stream.of(GraphProjection.emptyStats());
+        log.info(String.format("Dropped graph projection, freed %d bytes off heap", stats.offHeapBytes));
+        return Stream.of(stats);
+    }
+}
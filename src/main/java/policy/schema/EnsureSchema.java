@@ -0,0 +1,81 @@
+package policy.schema;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class EnsureSchema {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public GraphDatabaseService db;
+
+    /**
+     * Creates the uniqueness constraints and indexes the ingest relies on and waits for them to come online
+     * @param timeoutSeconds How long to wait for the indexes to come online
+     * @return Stream of one row per constraint or index
+     */
+    @Procedure(value = "policy.ensureSchema", mode = Mode.SCHEMA)
+    @Description("Creates the constraints and indexes the ingest relies on, waits for them to come online and reports which were missing.")
+    public Stream<SchemaStatus> ensureSchema(@Name(value = "timeoutSeconds", defaultValue = "300") long timeoutSeconds) {
+        List<SchemaStatus> statuses = new ArrayList<>();
+
+        for (PolicySchema.SchemaIndex index : PolicySchema.INDEXES) {
+            boolean exists;
+            try (Transaction tx = db.beginTx()) {
+                exists = index.exists(tx);
+            }
+            if (exists) {
+                statuses.add(new SchemaStatus(index, false, "EXISTS", ""));
+                continue;
+            }
+
+            // Each one gets its own transaction so one failure, e.g. duplicate names, doesn't block the rest
+            try (Transaction tx = db.beginTx()) {
+                index.create(tx);
+                tx.commit();
+                statuses.add(new SchemaStatus(index, true, "CREATED", ""));
+            } catch (Exception e) {
+                log.error(String.format("Error creating %s: %s", index, e.getMessage()));
+                statuses.add(new SchemaStatus(index, true, "FAILED", e.getMessage()));
+            }
+        }
+
+        try (Transaction tx = db.beginTx()) {
+            tx.schema().awaitIndexesOnline(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException("Error waiting for indexes to come online", e);
+        } finally {
+            PolicySchema.resetIngestSchemaCheck(db);
+        }
+
+        return statuses.stream();
+    }
+
+    public static class SchemaStatus {
+        public final String label;
+        public final String property;
+        public final String kind;
+        public final boolean missing;
+        public final String status;
+        public final String message;
+
+        public SchemaStatus(PolicySchema.SchemaIndex index, boolean missing, String status, String message) {
+            this.label = index.label;
+            this.property = index.property;
+            this.kind = index.unique ? "UNIQUE" : "INDEX";
+            this.missing = missing;
+            this.status = status;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package policy.schema;
+
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+import policy.utils.Settings;
+import policy.utils.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * One-off data migrations for databases ingested by an older version of the plugin, each committing in chunks
+ * and safe to rerun
+ */
+public class MigrateGraph {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public GraphDatabaseService db;
+
+    /**
+     * Sets ref_key on the Document and UKN_Document nodes stored before it was, or with a key from an older
+     * normalization, committing every chunkSize nodes, so reference linking can look them up through the ref_key index
+     * @param chunkSize The number of nodes to update per transaction
+     * @return Stream of one row per label
+     */
+    @Procedure(value = "policy.backfillRefKeys", mode = Mode.WRITE)
+    @Description("Sets the normalized ref_key on Document and UKN_Document nodes that were stored without one or with an outdated one.")
+    public Stream<RefKeyBackfill> backfillRefKeys(@Name(value = "chunkSize", defaultValue = "10000") long chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+        List<RefKeyBackfill> backfills = new ArrayList<>();
+        for (String label : List.of("Document", "UKN_Document")) {
+            // Read the ids once, so each chunk is a seek by id rather than another scan of the label
+            LongArrayList nodeIds = new LongArrayList();
+            try (Transaction tx = db.beginTx();
+                 ResourceIterator<Node> nodes = tx.findNodes(Label.label(label))) {
+                while (nodes.hasNext()) {
+                    Node node = nodes.next();
+                    if (needsRefKey(node)) nodeIds.add(node.getId());
+                }
+            }
+
+            long nodesUpdated = 0;
+            for (int from = 0; from < nodeIds.size(); from += chunkSize) {
+                int to = (int) Math.min(nodeIds.size(), from + chunkSize);
+                try (Transaction tx = db.beginTx()) {
+                    for (int i = from; i < to; i++) {
+                        Node node;
+                        try {
+                            node = tx.getNodeById(nodeIds.get(i));
+                        } catch (NotFoundException e) {
+                            continue; // Removed since the ids were read
+                        }
+                        if (!needsRefKey(node)) continue;
+                        node.setProperty("ref_key", Util.refKey((String) node.getProperty("ref_name")));
+                        nodesUpdated++;
+                    }
+                    tx.commit();
+                } catch (Exception e) {
+                    throw new RuntimeException(String.format("Error backfilling ref_key on %s nodes after %d were updated, rerun to resume", label, nodesUpdated), e);
+                }
+            }
+            log.info(String.format("Backfilled ref_key on %d %s nodes", nodesUpdated, label));
+            backfills.add(new RefKeyBackfill(label, nodesUpdated));
+        }
+        return backfills.stream();
+    }
+
+    /**
+     * True if the node has a ref_name and its ref_key is missing or not the one Util.refKey gives now
+     */
+    private static boolean needsRefKey(Node node) {
+        Object refName = node.getProperty("ref_name", null);
+        return refName instanceof String && !Util.refKey((String) refName).equals(node.getProperty("ref_key", null));
+    }
+
+    /**
+     * Deletes the IS_IN relationships from topics to documents, which mirror CONTAINS, committing every chunkSize
+     * relationships. Run it after setting gamechanger.ingest.topic_edges=contains, otherwise the ingest writes them again.
+     * @param chunkSize The number of relationships to delete per transaction
+     * @return Stream of one row per committed chunk
+     */
+    @Procedure(value = "policy.removeTopicIsInRelationships", mode = Mode.WRITE)
+    @Description("Deletes the IS_IN relationships that mirror CONTAINS between topics and documents in chunked transactions.")
+    public Stream<RelationshipsRemoved> removeTopicIsInRelationships(@Name(value = "chunkSize", defaultValue = "10000") long chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+        if (Settings.writeTopicIsIn()) {
+            log.warn(String.format("%s is not '%s', the ingest will keep writing IS_IN relationships", Settings.TOPIC_EDGES, Settings.TOPIC_EDGES_CONTAINS));
+        }
+        long[] chunk = {0};
+        boolean[] done = {false};
+        return Util.lazyStream(() -> {
+            if (done[0]) return null;
+            long deleted;
+            try (Transaction tx = db.beginTx();
+                 Result result = tx.execute("MATCH (:Topic)-[r:IS_IN]->(:Document) WITH r LIMIT $limit DELETE r RETURN count(*) AS deleted",
+                         Util.map("limit", chunkSize))) {
+                deleted = (Long) result.next().get("deleted");
+                tx.commit();
+            } catch (Exception e) {
+                throw new RuntimeException(String.format("Error removing IS_IN relationships for chunk %d, rerun to resume", chunk[0]), e);
+            }
+            // A short chunk was the last one
+            done[0] = deleted < chunkSize;
+            if (deleted == 0) return null;
+            log.info(String.format("Removed %d IS_IN relationships in chunk %d", deleted, chunk[0]));
+            return new RelationshipsRemoved(chunk[0]++, deleted);
+        });
+    }
+
+    public static class RelationshipsRemoved {
+        public final Number chunk;
+        public final Number relationshipsDeleted;
+
+        public RelationshipsRemoved(long chunk, long relationshipsDeleted) {
+            this.chunk = chunk;
+            this.relationshipsDeleted = relationshipsDeleted;
+        }
+    }
+
+    public static class RefKeyBackfill {
+        public final String label;
+        public final Number nodesUpdated;
+
+        public RefKeyBackfill(String label, long nodesUpdated) {
+            this.label = label;
+            this.nodesUpdated = nodesUpdated;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package policy.schema;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.ConstraintType;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.IndexType;
+import org.neo4j.internal.helpers.collection.Iterables;
+import org.neo4j.logging.Log;
+import policy.utils.Settings;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The constraints and indexes that the ingest and reference linking lookups rely on.
+ * Without them every findNode by doc_id, name or ref_name is a label scan.
+ */
+public class PolicySchema {
+
+    public static final List<SchemaIndex> INDEXES = List.of(
+        new SchemaIndex("Document", "doc_id", true),
+        new SchemaIndex("UKN_Document", "doc_id", true),
+        new SchemaIndex("Topic", "name", true),
+        new SchemaIndex("Entity", "name", true),
+        new SchemaIndex("Document", "ref_name", false),
+        new SchemaIndex("Document", "ref_key", false),
+        new SchemaIndex("UKN_Document", "ref_key", false),
+        new SchemaIndex("Document", "ingest_timestamp", false)
+    );
+
+    // Databases whose schema has already been checked, so per-document procedures don't re-read it on every call
+    private static final Set<String> checkedDatabases = ConcurrentHashMap.newKeySet();
+
+    public static class SchemaIndex {
+        public final String label;
+        public final String property;
+        public final boolean unique;
+
+        public SchemaIndex(String label, String property, boolean unique) {
+            this.label = label;
+            this.property = property;
+            this.unique = unique;
+        }
+
+        public String name() {
+            return String.format("policy_%s_%s", label.toLowerCase(), property);
+        }
+
+        /**
+         * True if the lookup on label/property is backed by an index, constraint indexes included
+         */
+        public boolean isIndexed(Transaction tx) {
+            for (IndexDefinition index : tx.schema().getIndexes(Label.label(label))) {
+                if (index.getIndexType() == IndexType.BTREE && List.of(property).equals(Iterables.asList(index.getPropertyKeys())))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * True if the index, or the uniqueness constraint for unique indexes, exists
+         */
+        public boolean exists(Transaction tx) {
+            if (!unique) return isIndexed(tx);
+            for (ConstraintDefinition constraint : tx.schema().getConstraints(Label.label(label))) {
+                if (constraint.isConstraintType(ConstraintType.UNIQUENESS) && List.of(property).equals(Iterables.asList(constraint.getPropertyKeys())))
+                    return true;
+            }
+            return false;
+        }
+
+        public void create(Transaction tx) {
+            if (unique) {
+                tx.schema().constraintFor(Label.label(label)).assertPropertyIsUnique(property).withName(name()).create();
+            } else {
+                tx.schema().indexFor(Label.label(label)).on(property).withName(name()).create();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s(%s)", label, property);
+        }
+    }
+
+    /**
+     * Returns the indexes the ingest lookups need that are not in the database
+     */
+    public static List<SchemaIndex> missingIndexes(Transaction tx) {
+        return INDEXES.stream().filter(index -> !index.isIndexed(tx)).collect(Collectors.toList());
+    }
+
+    /**
+     * Warns when the ingest lookups are not backed by indexes, or refuses to run when
+     * Settings.requireSchema() is set. The schema is read once per database, and read again
+     * after resetIngestSchemaCheck, so the warning is logged once rather than per call.
+     */
+    public static void checkIngestSchema(GraphDatabaseService db, Log log) {
+        if (checkedDatabases.contains(db.databaseName())) return;
+        List<SchemaIndex> missing;
+        try (Transaction tx = db.beginTx()) {
+            missing = missingIndexes(tx);
+        }
+        if (missing.isEmpty()) {
+            checkedDatabases.add(db.databaseName());
+            return;
+        }
+
+        String message = String.format("Missing indexes for %s, ingest lookups will fall back to label scans. Run CALL policy.ensureSchema() to create them.",
+                missing.stream().map(SchemaIndex::toString).collect(Collectors.joining(", ")));
+        if (Settings.requireSchema()) {
+            throw new IllegalStateException(message);
+        }
+        log.warn(message);
+        checkedDatabases.add(db.databaseName());
+    }
+
+    /**
+     * Makes the next checkIngestSchema read the schema of the database again, e.g. after policy.ensureSchema
+     */
+    public static void resetIngestSchemaCheck(GraphDatabaseService db) {
+        checkedDatabases.remove(db.databaseName());
+    }
+}
@@ -0,0 +1,169 @@
+package policy.search;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.traversal.BranchState;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.graphdb.traversal.Uniqueness;
+import org.neo4j.internal.helpers.collection.Iterators;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+import policy.utils.Util;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+public class GetDocumentNeighborhood {
+
+    private static final RelationshipType[] NEIGHBORHOOD_TYPES = {
+            RelationshipType.withName("REFERENCES"),
+            RelationshipType.withName("MENTIONS"),
+            RelationshipType.withName("CONTAINS")
+    };
+
+    public static final String FAN_OUT = "fanOut";
+    public static final String MAX_DEGREE = "maxDegree";
+    public static final String MAX_NODES = "maxNodes";
+    private static final long DEFAULT_FAN_OUT = 25;
+    private static final long DEFAULT_MAX_DEGREE = 1000;
+    private static final long DEFAULT_MAX_NODES = 500;
+
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public Transaction tx;
+
+    /**
+     * Walks breadth first from a document through REFERENCES, MENTIONS and CONTAINS in either direction, so a
+     * document leads to the entities and topics it has and on to the other documents that have them.
+     * Hub nodes, whose degree over those types is above maxDegree, are returned but not expanded, and each node
+     * expands at most fanOut relationships, so the result stays bounded however connected the graph is.
+     * @param docId The doc_id to start from
+     * @param depth The number of hops to expand
+     * @param limits fanOut, the relationships expanded per node, either one number or a list with one per hop, the
+     *               last repeated for deeper hops (default 25). maxDegree, the degree above which a node is not
+     *               expanded (default 1000). maxNodes, the most nodes to return (default 500).
+     */
+    @Procedure(value = "policy.getDocumentNeighborhood", mode = Mode.READ)
+    @Description("Returns the documents, entities and topics within depth hops of a document, with per-hop fan-out caps, hub pruning and a node limit.")
+    // The traversal framework is deprecated in 4.2 without a replacement that keeps the per-hop expander
+    @SuppressWarnings("deprecation")
+    public Stream<Util.NodeRelationshipWrapper> getDocumentNeighborhood(@Name("docId") String docId,
+                                                                        @Name(value = "depth", defaultValue = "2") long depth,
+                                                                        @Name(value = "limits", defaultValue = "{}") Map<String, Object> limits) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative");
+        }
+        Limits bounds = Limits.of(limits);
+
+        List<Node> nodes = new ArrayList<>();
+        List<Relationship> relationships = new ArrayList<>();
+        Node start = tx.findNode(Label.label("Document"), "doc_id", docId);
+        if (start == null) return Stream.of(new Util.NodeRelationshipWrapper(nodes, relationships));
+
+        try {
+            Iterator<Path> paths = tx.traversalDescription()
+                    .breadthFirst()
+                    .expand(new BoundedExpander(bounds))
+                    .uniqueness(Uniqueness.NODE_GLOBAL)
+                    .evaluator(Evaluators.toDepth((int) Math.min(depth, Integer.MAX_VALUE)))
+                    .traverse(start)
+                    .iterator();
+            // The traversal is lazy, stopping here stops the expansion
+            while (paths.hasNext() && nodes.size() < bounds.maxNodes) {
+                Path path = paths.next();
+                nodes.add(path.endNode());
+                if (path.lastRelationship() != null) relationships.add(path.lastRelationship());
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Error getting the neighborhood of %s", docId), e);
+        }
+        return Stream.of(new Util.NodeRelationshipWrapper(nodes, relationships));
+    }
+
+    static class Limits {
+        final long[] fanOut;
+        final long maxDegree;
+        final long maxNodes;
+
+        private Limits(long[] fanOut, long maxDegree, long maxNodes) {
+            this.fanOut = fanOut;
+            this.maxDegree = maxDegree;
+            this.maxNodes = maxNodes;
+        }
+
+        static Limits of(Map<String, Object> limits) {
+            for (String key : limits.keySet()) {
+                if (!List.of(FAN_OUT, MAX_DEGREE, MAX_NODES).contains(key)) {
+                    throw new IllegalArgumentException(String.format("Unknown limit %s, expected %s, %s or %s", key, FAN_OUT, MAX_DEGREE, MAX_NODES));
+                }
+            }
+            Object fanOut = limits.getOrDefault(FAN_OUT, DEFAULT_FAN_OUT);
+            long[] fanOutPerHop;
+            if (fanOut instanceof List) {
+                fanOutPerHop = ((List<?>) fanOut).stream().mapToLong(value -> positive(FAN_OUT, value)).toArray();
+                if (fanOutPerHop.length == 0) throw new IllegalArgumentException(FAN_OUT + " must not be empty");
+            } else {
+                fanOutPerHop = new long[]{positive(FAN_OUT, fanOut)};
+            }
+            return new Limits(fanOutPerHop,
+                    positive(MAX_DEGREE, limits.getOrDefault(MAX_DEGREE, DEFAULT_MAX_DEGREE)),
+                    positive(MAX_NODES, limits.getOrDefault(MAX_NODES, DEFAULT_MAX_NODES)));
+        }
+
+        long fanOut(int hop) {
+            return fanOut[Math.min(hop, fanOut.length - 1)];
+        }
+
+        private static long positive(String key, Object value) {
+            if (!(value instanceof Number) || ((Number) value).longValue() < 1) {
+                throw new IllegalArgumentException(String.format("%s must be a number greater than 0, got %s", key, value));
+            }
+            return ((Number) value).longValue();
+        }
+    }
+
+    /**
+     * Expands at most the hop's fan-out of relationships from each node, and none from hubs other than the start
+     */
+    static class BoundedExpander implements PathExpander<Void> {
+        private final Limits limits;
+
+        BoundedExpander(Limits limits) {
+            this.limits = limits;
+        }
+
+        @Override
+        public Iterable<Relationship> expand(Path path, BranchState<Void> state) {
+            Node node = path.endNode();
+            if (path.length() > 0 && degree(node) > limits.maxDegree) return Collections.emptyList();
+
+            long fanOut = limits.fanOut(path.length());
+            Set<Node> onPath = new HashSet<>();
+            path.nodes().forEach(onPath::add);
+            List<Relationship> expanded = new ArrayList<>();
+            // Closed here since the loop usually stops before the relationships run out
+            try (ResourceIterator<Relationship> it = Iterators.asResourceIterator(node.getRelationships(Direction.BOTH, NEIGHBORHOOD_TYPES).iterator())) {
+                while (it.hasNext() && expanded.size() < fanOut) {
+                    Relationship rel = it.next();
+                    // The way back, cycles and self references lead nowhere new, don't spend the fan-out on them
+                    if (!onPath.contains(rel.getOtherNode(node))) expanded.add(rel);
+                }
+            }
+            return expanded;
+        }
+
+        private static long degree(Node node) {
+            long degree = 0;
+            for (RelationshipType type : NEIGHBORHOOD_TYPES) degree += node.getDegree(type, Direction.BOTH);
+            return degree;
+        }
+
+        @Override
+        public PathExpander<Void> reverse() {
+            return this;
+        }
+    }
+}
@@ -5,10 +5,9 @@ import org.neo4j.logging.Log;
 import org.neo4j.procedure.*;
 import policy.utils.Util;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.*;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class GetMainGraphView {
     // This gives us a log instance that outputs messages to the
@@ -19,58 +18,118 @@ public class GetMainGraphView {
     @Context
     public GraphDatabaseService db;
 
+    @Context
+    public Transaction tx;
+
     /**
-     * This procedure takes a document json as a string and creates the nodes associated with the json
+     * This procedure takes a list of doc_ids and returns the documents, the references between them and the
+     * entities and topics they mention. Each doc_id is looked up through the Document.doc_id index.
+     * Results are cached per doc_id set in the GraphViewCache, see policy.graphViewCacheStats.
      * @param docIds List of docIds to get nodes and relationships for;
      */
-    @Procedure(value = "policy.getMainGraphView", mode = Mode.WRITE)
-    @Description("Takes in a document json and creates the nodes and relationships based on the content.")
+    @Procedure(value = "policy.getMainGraphView", mode = Mode.READ)
+    @Description("Takes in a list of doc_ids and returns the documents, the references between them and the entities and topics they contain.")
     public Stream<Util.NodeRelationshipWrapper> getMainGraphView(@Name("docIds") List<String> docIds) {
+        GraphViewCache cache = GraphViewCache.forDatabase(db.databaseName());
+        if (cache == null) return Stream.of(collect(docIds));
+
+        List<String> key = GraphViewCache.key(docIds);
+        if (key == null) return Stream.of(collect(docIds));
+        Util.NodeRelationshipWrapper cached = cache.get(key, tx);
+        if (cached != null) return Stream.of(cached);
+
+        long generation = cache.generation();
+        Util.NodeRelationshipWrapper view = collect(key);
+        cache.put(key, view, generation);
+        return Stream.of(view);
+    }
+
+    private Util.NodeRelationshipWrapper collect(List<String> docIds) {
         List<Node> nodes = new ArrayList<>();
         List<Relationship> relationships = new ArrayList<>();
 
-        try {
-            // Get the documents
-            ResourceIterator<Node> docs = db.beginTx().findNodes(Label.label("Document"));
-
-            while (docs.hasNext()) {
-                Node t_node = docs.next();
-
-                if (docIds.contains(t_node.getProperty("doc_id"))){
-
-                    // Add the node
-                    nodes.add(t_node);
+        try (Stream<Util.GraphElement> elements = traverse(docIds)) {
+            elements.forEach(element -> {
+                if (element.node != null) nodes.add(element.node);
+                else relationships.add(element.relationship);
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("Error getting main graph view", e);
+        }
 
-                    // Look for references
-                    Iterable<Relationship> t_rels = t_node.getRelationships(Direction.OUTGOING, RelationshipType.withName("REFERENCES"));
-                    for (Relationship rel : t_rels) {
-                        if (docIds.contains(rel.getEndNode().getProperty("doc_id")) && !rel.getEndNode().equals(t_node)) {
-                            relationships.add(rel);
-                        }
-                    }
+        return new Util.NodeRelationshipWrapper(nodes, relationships);
+    }
 
-                    // Look for entities
-                    Iterable<Relationship> t_ents = t_node.getRelationships(Direction.OUTGOING, RelationshipType.withName("MENTIONS"));
-                    for (Relationship rel : t_ents) {
-                        relationships.add(rel);
-                        nodes.add(rel.getEndNode());
-                    }
+    /**
+     * Returns the size and hit, miss, eviction and invalidation counts of the graph view cache
+     * @param reset Empties the cache and clears the counts after the stats are returned
+     */
+    @Procedure(value = "policy.graphViewCacheStats", mode = Mode.READ)
+    @Description("Returns the size and hit/miss statistics of the policy.getMainGraphView result cache, optionally resetting it.")
+    public Stream<GraphViewCache.Stats> graphViewCacheStats(@Name(value = "reset", defaultValue = "false") boolean reset) {
+        GraphViewCache cache = GraphViewCache.forDatabase(db.databaseName());
+        if (cache == null) return Stream.of(GraphViewCache.disabledStats());
+
+        GraphViewCache.Stats stats = cache.stats();
+        if (reset) cache.reset();
+        return Stream.of(stats);
+    }
 
-                    // Look for topics
-                    Iterable<Relationship> t_topics = t_node.getRelationships(Direction.OUTGOING, RelationshipType.withName("CONTAINS"));
-                    for (Relationship rel : t_topics) {
-                        relationships.add(rel);
-                        nodes.add(rel.getEndNode());
-                    }
+    /**
+     * The same graph as policy.getMainGraphView, streamed as one row per node or relationship while the
+     * documents are traversed, so a page can be returned without materializing the whole graph
+     * @param docIds List of docIds to get nodes and relationships for
+     * @param skip The number of rows to skip
+     * @param limit The maximum number of rows to return, -1 for all
+     */
+    @Procedure(value = "policy.getMainGraphViewStream", mode = Mode.READ)
+    @Description("Takes in a list of doc_ids and streams the graph view as one row per node or relationship, with skip and limit paging.")
+    public Stream<Util.GraphElement> getMainGraphViewStream(@Name("docIds") List<String> docIds,
+                                                            @Name(value = "skip", defaultValue = "0") long skip,
+                                                            @Name(value = "limit", defaultValue = "-1") long limit) {
+        Stream<Util.GraphElement> elements = traverse(docIds).skip(Math.max(skip, 0));
+        return limit < 0 ? elements : elements.limit(limit);
+    }
 
-                }
+    /**
+     * Lazily walks the requested documents, emitting each document, the references between requested documents
+     * and the entities and topics they contain. Entities and topics shared between documents are emitted once.
+     */
+    private Stream<Util.GraphElement> traverse(List<String> docIds) {
+        Set<String> docIdSet = new LinkedHashSet<>(docIds);
+        Set<Long> seenNodes = new HashSet<>();
+
+        return docIdSet.stream()
+                .filter(Objects::nonNull)
+                .flatMap(docId -> {
+                    ResourceIterator<Node> docs = tx.findNodes(Label.label("Document"), "doc_id", docId);
+                    return docs.stream().onClose(docs::close);
+                })
+                .flatMap(docNode -> Stream.of(
+                        nodeElement(docNode, seenNodes),
+                        // Look for references
+                        relationships(docNode, "REFERENCES")
+                                .filter(rel -> {
+                                    Node endNode = rel.getEndNode();
+                                    return !endNode.equals(docNode) && docIdSet.contains(endNode.getProperty("doc_id", null));
+                                })
+                                .map(Util.GraphElement::new),
+                        // Look for entities
+                        relationships(docNode, "MENTIONS").flatMap(rel -> relationshipAndEndNode(rel, seenNodes)),
+                        // Look for topics
+                        relationships(docNode, "CONTAINS").flatMap(rel -> relationshipAndEndNode(rel, seenNodes))
+                ).flatMap(stream -> stream));
+    }
 
-            }
+    private Stream<Relationship> relationships(Node node, String type) {
+        return StreamSupport.stream(node.getRelationships(Direction.OUTGOING, RelationshipType.withName(type)).spliterator(), false);
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException("Error creating node from json", e);
-        }
+    private Stream<Util.GraphElement> relationshipAndEndNode(Relationship rel, Set<Long> seenNodes) {
+        return Stream.concat(Stream.of(new Util.GraphElement(rel)), nodeElement(rel.getEndNode(), seenNodes));
+    }
 
-        return Stream.of(new Util.NodeRelationshipWrapper(nodes, relationships));
+    private Stream<Util.GraphElement> nodeElement(Node node, Set<Long> seenNodes) {
+        return seenNodes.add(node.getId()) ? Stream.of(new Util.GraphElement(node)) : Stream.empty();
     }
 }
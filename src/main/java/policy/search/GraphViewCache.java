@@ -0,0 +1,285 @@
+package policy.search;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventListener;
+import policy.utils.Util;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded LRU cache of policy.getMainGraphView results, keyed by the sorted, de-duplicated doc_id set.
+ * Entries hold node and relationship ids rather than entities, since entities are bound to the
+ * transaction that read them, and are re-materialized in the caller's transaction on a hit.
+ * The cache is only used for databases where GraphViewCacheExtensionFactory registered the
+ * transaction listener, which evicts every entry that contains a node changed by a committed
+ * transaction, or whose doc_id set contains a doc_id that was just assigned to a Document.
+ */
+public class GraphViewCache {
+
+    private static final Map<String, GraphViewCache> CACHES = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+    private final LinkedHashMap<List<String>, Entry> entries;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    GraphViewCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, Entry> eldest) {
+                if (size() <= GraphViewCache.this.maxSize) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return The cache for the database, or null if its transaction listener is not registered
+     */
+    public static GraphViewCache forDatabase(String databaseName) {
+        return CACHES.get(databaseName);
+    }
+
+    static void register(String databaseName, GraphViewCache cache) {
+        CACHES.put(databaseName, cache);
+    }
+
+    static void unregister(String databaseName) {
+        CACHES.remove(databaseName);
+    }
+
+    /**
+     * @return The sorted, de-duplicated doc_ids, or null if any doc_id is null, in which case the request isn't cached
+     */
+    public static List<String> key(Collection<String> docIds) {
+        if (docIds.stream().anyMatch(Objects::isNull)) return null;
+        return List.copyOf(new TreeSet<>(docIds));
+    }
+
+    /**
+     * The generation to pass to put, read before the traversal so a result that raced with a commit isn't cached
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Re-materializes the cached graph view in the given transaction
+     * @return The graph view, or null on a miss
+     */
+    public Util.NodeRelationshipWrapper get(List<String> key, Transaction tx) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        try {
+            List<Node> nodes = new ArrayList<>(entry.nodeIds.length);
+            for (long nodeId : entry.nodeIds) nodes.add(tx.getNodeById(nodeId));
+            List<Relationship> relationships = new ArrayList<>(entry.relationshipIds.length);
+            for (long relationshipId : entry.relationshipIds) relationships.add(tx.getRelationshipById(relationshipId));
+            hits.increment();
+            return new Util.NodeRelationshipWrapper(nodes, relationships);
+        } catch (NotFoundException e) {
+            // Deleted by a transaction that hasn't been through afterCommit yet
+            synchronized (entries) {
+                entries.remove(key);
+            }
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Caches the graph view unless a transaction committed since the generation was read
+     */
+    public void put(List<String> key, Util.NodeRelationshipWrapper view, long generation) {
+        if (maxSize <= 0) return;
+        Entry entry = new Entry(key, view);
+        synchronized (entries) {
+            if (this.generation.get() != generation) return;
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Empties the cache and clears the counts
+     */
+    public void reset() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        invalidations.reset();
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(true, size, maxSize, hits.sum(), misses.sum(), evictions.sum(), invalidations.sum());
+    }
+
+    public static Stats disabledStats() {
+        return new Stats(false, 0, 0, 0, 0, 0, 0);
+    }
+
+    private void invalidate(Changes changes) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            if (changes == null) {
+                invalidations.add(entries.size());
+                entries.clear();
+                return;
+            }
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().isAffectedBy(changes)) {
+                    it.remove();
+                    invalidations.increment();
+                }
+            }
+        }
+    }
+
+    private boolean isEmpty() {
+        synchronized (entries) {
+            return entries.isEmpty();
+        }
+    }
+
+    private static class Entry {
+        private final Set<String> docIds;
+        private final long[] nodeIds;
+        private final long[] relationshipIds;
+        private final Set<Long> nodeIdSet = new HashSet<>();
+
+        private Entry(List<String> key, Util.NodeRelationshipWrapper view) {
+            this.docIds = new HashSet<>(key);
+            this.nodeIds = view.nodes.stream().mapToLong(Node::getId).toArray();
+            this.relationshipIds = view.relationships.stream().mapToLong(Relationship::getId).toArray();
+            for (long nodeId : nodeIds) nodeIdSet.add(nodeId);
+        }
+
+        private boolean isAffectedBy(Changes changes) {
+            return intersects(docIds, changes.docIds) || intersects(nodeIdSet, changes.nodeIds);
+        }
+
+        /**
+         * Probes the larger set with the smaller one, so a commit touching millions of nodes costs each entry
+         * its own size rather than the size of the commit
+         */
+        private static <T> boolean intersects(Set<T> a, Set<T> b) {
+            Set<T> smaller = a.size() <= b.size() ? a : b;
+            Set<T> larger = smaller == a ? b : a;
+            for (T value : smaller) {
+                if (larger.contains(value)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The nodes touched by a transaction, and the doc_ids it assigned, collected before the commit while
+     * deleted entities can still be read
+     */
+    private static class Changes {
+        private final Set<Long> nodeIds = new HashSet<>();
+        private final Set<String> docIds = new HashSet<>();
+
+        private static Changes of(TransactionData data) {
+            Changes changes = new Changes();
+            for (Node node : data.createdNodes()) changes.nodeIds.add(node.getId());
+            for (Node node : data.deletedNodes()) changes.nodeIds.add(node.getId());
+            for (LabelEntry entry : data.assignedLabels()) {
+                changes.nodeIds.add(entry.node().getId());
+                Object docId = entry.node().getProperty("doc_id", null);
+                if (docId instanceof String) changes.docIds.add((String) docId);
+            }
+            for (LabelEntry entry : data.removedLabels()) changes.nodeIds.add(entry.node().getId());
+            for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+                changes.nodeIds.add(entry.entity().getId());
+                if ("doc_id".equals(entry.key()) && entry.value() instanceof String) changes.docIds.add((String) entry.value());
+            }
+            for (PropertyEntry<Node> entry : data.removedNodeProperties()) changes.nodeIds.add(entry.entity().getId());
+            for (Relationship rel : data.createdRelationships()) addEndpoints(changes, rel);
+            for (Relationship rel : data.deletedRelationships()) addEndpoints(changes, rel);
+            for (PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()) addEndpoints(changes, entry.entity());
+            for (PropertyEntry<Relationship> entry : data.removedRelationshipProperties()) addEndpoints(changes, entry.entity());
+            return changes;
+        }
+
+        private static void addEndpoints(Changes changes, Relationship rel) {
+            changes.nodeIds.add(rel.getStartNodeId());
+            changes.nodeIds.add(rel.getEndNodeId());
+        }
+    }
+
+    /**
+     * Collects the changes before each commit and evicts the entries they touch after it. Entries only
+     * hold Document, Topic and Entity nodes, so matching on node ids covers changes to any of them.
+     */
+    static class InvalidationListener implements TransactionEventListener<Changes> {
+        private final GraphViewCache cache;
+
+        InvalidationListener(GraphViewCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public Changes beforeCommit(TransactionData data, Transaction transaction, GraphDatabaseService databaseService) {
+            // Stop results read before this commit from being cached. When the cache is empty there is no need
+            // to collect the changes, anything cached before afterCommit runs is cleared instead.
+            cache.generation.incrementAndGet();
+            if (cache.isEmpty()) return null;
+            return Changes.of(data);
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, Changes changes, GraphDatabaseService databaseService) {
+            cache.invalidate(changes);
+        }
+
+        @Override
+        public void afterRollback(TransactionData data, Changes changes, GraphDatabaseService databaseService) {
+        }
+    }
+
+    public static class Stats {
+        public final boolean enabled;
+        public final long size;
+        public final long maxSize;
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long invalidations;
+
+        public Stats(boolean enabled, long size, long maxSize, long hits, long misses, long evictions, long invalidations) {
+            this.enabled = enabled;
+            this.size = size;
+            this.maxSize = maxSize;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package policy.search;
+
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.kernel.extension.ExtensionFactory;
+import org.neo4j.kernel.extension.ExtensionType;
+import org.neo4j.kernel.extension.context.ExtensionContext;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.kernel.lifecycle.Lifecycle;
+import org.neo4j.kernel.lifecycle.LifecycleAdapter;
+import policy.utils.Settings;
+
+import static org.neo4j.configuration.GraphDatabaseSettings.SYSTEM_DATABASE_NAME;
+
+/**
+ * Creates a GraphViewCache for each database when it starts and registers the transaction listener
+ * that keeps it consistent. Loaded by Neo4j through META-INF/services like any other kernel extension.
+ */
+public class GraphViewCacheExtensionFactory extends ExtensionFactory<GraphViewCacheExtensionFactory.Dependencies> {
+
+    public interface Dependencies {
+        GraphDatabaseAPI graphDatabaseAPI();
+        DatabaseManagementService databaseManagementService();
+    }
+
+    public GraphViewCacheExtensionFactory() {
+        super(ExtensionType.DATABASE, "policyGraphViewCache");
+    }
+
+    @Override
+    public Lifecycle newInstance(ExtensionContext context, Dependencies dependencies) {
+        String databaseName = dependencies.graphDatabaseAPI().databaseName();
+        DatabaseManagementService managementService = dependencies.databaseManagementService();
+
+        return new LifecycleAdapter() {
+            private GraphViewCache.InvalidationListener listener;
+
+            @Override
+            public void start() {
+                int size = Settings.graphViewCacheSize();
+                if (SYSTEM_DATABASE_NAME.equals(databaseName) || size <= 0) return;
+
+                GraphViewCache cache = new GraphViewCache(size);
+                listener = new GraphViewCache.InvalidationListener(cache);
+                managementService.registerTransactionEventListener(databaseName, listener);
+                GraphViewCache.register(databaseName, cache);
+            }
+
+            @Override
+            public void stop() {
+                if (listener == null) return;
+                GraphViewCache.unregister(databaseName);
+                managementService.unregisterTransactionEventListener(databaseName, listener);
+                listener = null;
+            }
+        };
+    }
+}
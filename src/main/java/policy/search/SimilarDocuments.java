@@ -0,0 +1,140 @@
+package policy.search;
+
+import org.eclipse.collections.api.map.primitive.MutableLongDoubleMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongDoubleHashMap;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+public class SimilarDocuments {
+
+    private static final RelationshipType CONTAINS = RelationshipType.withName("CONTAINS");
+    private static final RelationshipType MENTIONS = RelationshipType.withName("MENTIONS");
+
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public Transaction tx;
+
+    /**
+     * Scores the documents that share topics or entities with a document and returns the k best. Each shared
+     * node adds the product of both documents' edge weights, 1 / (1 + CONTAINS relevancy) or ln(1 + MENTIONS count),
+     * times 1 / ln(1 + degree) of the shared node, so a topic or entity that many documents have counts for less.
+     * Nodes with more than maxDegree documents are skipped, they would add almost nothing to every candidate
+     * and reading them is what makes a naive overlap query slow.
+     * @param docId The doc_id to find similar documents for
+     * @param k The number of documents to return
+     * @param maxDegree The most documents a topic or entity can have and still be used
+     * @return Stream of up to k documents, best first
+     */
+    @Procedure(value = "policy.similarDocuments", mode = Mode.READ)
+    @Description("Returns the k documents most similar to a document by weighted overlap of shared topics and entities, down-weighting and skipping hubs.")
+    public Stream<SimilarDocument> similarDocuments(@Name("docId") String docId,
+                                                    @Name(value = "k", defaultValue = "10") long k,
+                                                    @Name(value = "maxDegree", defaultValue = "10000") long maxDegree) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be greater than 0");
+        }
+        Node docNode = tx.findNode(Label.label("Document"), "doc_id", docId);
+        if (docNode == null) return Stream.empty();
+
+        try {
+            return topK(scoreCandidates(docNode, maxDegree), (int) Math.min(k, Integer.MAX_VALUE)).stream();
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("Error finding documents similar to %s", docId), e);
+        }
+    }
+
+    private MutableLongDoubleMap scoreCandidates(Node docNode, long maxDegree) {
+        MutableLongDoubleMap scores = new LongDoubleHashMap();
+        int hubsSkipped = 0;
+        for (Relationship rel : docNode.getRelationships(Direction.OUTGOING, CONTAINS, MENTIONS)) {
+            Node shared = rel.getEndNode();
+            RelationshipType type = rel.getType();
+            // Read from the degree counts, a hub's relationships are never touched
+            long degree = shared.getDegree(type, Direction.INCOMING);
+            if (degree > maxDegree) {
+                hubsSkipped++;
+                continue;
+            }
+            if (degree < 2) continue;
+
+            double weight = edgeWeight(rel) / Math.log(1 + degree);
+            if (weight == 0) continue;
+            for (Relationship other : shared.getRelationships(Direction.INCOMING, type)) {
+                long candidateId = other.getStartNodeId();
+                if (candidateId == docNode.getId()) continue;
+                scores.addToValue(candidateId, weight * edgeWeight(other));
+            }
+        }
+        if (hubsSkipped > 0) {
+            log.debug(String.format("Skipped %d topics and entities with more than %d documents", hubsSkipped, maxDegree));
+        }
+        return scores;
+    }
+
+    private static double edgeWeight(Relationship rel) {
+        if (rel.isType(CONTAINS)) {
+            // The ingest stores the topic's position in the document's topics as relevancy, 0 for the most relevant
+            Object relevancy = rel.getProperty("relevancy", 0);
+            return 1.0 / (1 + (relevancy instanceof Number ? Math.max(((Number) relevancy).doubleValue(), 0) : 0));
+        }
+        Object count = rel.getProperty("count", 1);
+        return Math.log1p(count instanceof Number ? ((Number) count).doubleValue() : 1);
+    }
+
+    /**
+     * Keeps the k best scores in a min-heap, so picking them is O(n log k) over the n candidates
+     */
+    private List<SimilarDocument> topK(MutableLongDoubleMap scores, int k) {
+        // Ties go to the lower node id, so the result doesn't depend on the map's iteration order
+        Comparator<Candidate> comparator = Comparator.comparingDouble((Candidate candidate) -> candidate.score).thenComparing(candidate -> -candidate.nodeId);
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(Math.min(k, Math.max(scores.size(), 1)) + 1, comparator);
+        scores.forEachKeyValue((nodeId, score) -> {
+            if (score <= 0) return;
+            Candidate candidate = new Candidate(nodeId, score);
+            if (heap.size() < k) {
+                heap.add(candidate);
+            } else if (comparator.compare(candidate, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        });
+
+        List<SimilarDocument> similar = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            Candidate candidate = heap.poll();
+            similar.add(new SimilarDocument(tx.getNodeById(candidate.nodeId), candidate.score));
+        }
+        Collections.reverse(similar);
+        return similar;
+    }
+
+    private static class Candidate {
+        private final long nodeId;
+        private final double score;
+
+        private Candidate(long nodeId, double score) {
+            this.nodeId = nodeId;
+            this.score = score;
+        }
+    }
+
+    public static class SimilarDocument {
+        public final Node node;
+        public final String docId;
+        public final Number score;
+
+        public SimilarDocument(Node node, double score) {
+            this.node = node;
+            this.docId = (String) node.getProperty("doc_id", null);
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package policy.utils;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Resolves nodes by (label, name) once per transaction or batch and remembers the node id,
+ * so names shared across documents such as "United States Army" are only looked up once.
+ * Nodes created during the batch must be registered with putNode so later lookups see them.
+ * It also remembers the (from, to, type) relationships created or found during the transaction so
+ * Util.createNonDuplicateRelationship doesn't check them against the graph again. Those are only
+ * worth keeping within one transaction, call endTransaction after each commit so a cache shared
+ * across batches only keeps the node ids. A cache is only used by one thread at a time.
+ */
+public class IngestCache {
+
+    private final Map<String, Map<String, Long>> nodeIdsByLabel = new HashMap<>();
+    private final Set<RelationshipKey> relationships = new HashSet<>();
+    private final IngestCache shared;
+
+    public IngestCache() {
+        this(null);
+    }
+
+    /**
+     * A cache that falls back to the node ids resolved by another cache, e.g. names resolved once before
+     * a parallel ingest. The shared cache is only read, so it can back caches on several threads as long
+     * as nothing writes to it any more.
+     */
+    public IngestCache(IngestCache shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Finds the node with the given label and name, using the cached id when there is one
+     * @return The node, or null if no node has that label and name
+     */
+    public Node findNode(Transaction tx, Label label, String name) {
+        long start = IngestMetrics.start();
+        try {
+            return resolveNode(tx, label, name);
+        } finally {
+            IngestMetrics.record(IngestMetrics.LOOKUP, start);
+        }
+    }
+
+    private Node resolveNode(Transaction tx, Label label, String name) {
+        Map<String, Long> nodeIds = nodeIdsByLabel.computeIfAbsent(label.name(), k -> new HashMap<>());
+        Long nodeId = nodeIds.get(name);
+        if (nodeId == null && shared != null) {
+            nodeId = shared.nodeIdsByLabel.getOrDefault(label.name(), Map.of()).get(name);
+        }
+        if (nodeId != null) {
+            try {
+                Node node = tx.getNodeById(nodeId);
+                if (node.hasLabel(label)) {
+                    nodeIds.put(name, nodeId);
+                    return node;
+                }
+            } catch (NotFoundException e) {
+                // The node was removed since it was cached, fall back to the lookup
+            }
+            nodeIds.remove(name);
+        }
+
+        Node node = tx.findNode(label, "name", name);
+        if (node != null) nodeIds.put(name, node.getId());
+        return node;
+    }
+
+    /**
+     * Registers a node created during the batch so later lookups resolve to it
+     */
+    public void putNode(Label label, String name, Node node) {
+        nodeIdsByLabel.computeIfAbsent(label.name(), k -> new HashMap<>()).put(name, node.getId());
+    }
+
+    public boolean hasRelationship(Node fromNode, Node toNode, RelationshipType type) {
+        return relationships.contains(new RelationshipKey(fromNode.getId(), toNode.getId(), type.name()));
+    }
+
+    public void putRelationship(Node fromNode, Node toNode, RelationshipType type) {
+        relationships.add(new RelationshipKey(fromNode.getId(), toNode.getId(), type.name()));
+    }
+
+    /**
+     * Forgets the relationships of the committed transaction, they grow with every document ingested
+     * while the node ids are shared by all of them
+     */
+    public void endTransaction() {
+        relationships.clear();
+    }
+
+    private static class RelationshipKey {
+        private final long fromId;
+        private final long toId;
+        private final String type;
+
+        private RelationshipKey(long fromId, long toId, String type) {
+            this.fromId = fromId;
+            this.toId = toId;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RelationshipKey)) return false;
+            RelationshipKey that = (RelationshipKey) o;
+            return fromId == that.fromId && toId == that.toId && type.equals(that.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fromId, toId, type);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package policy.utils;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for each ingest phase and procedure. Each phase is also
+ * registered as an MBean under policy.gamechanger:type=IngestStats,name=&lt;phase&gt;.
+ * Latencies are kept in power of two buckets, so percentiles are the upper bound of their bucket.
+ */
+public class IngestMetrics {
+
+    public static final String PARSE = "parse";
+    public static final String LOOKUP = "lookup";
+    public static final String DEDUPE = "dedupe";
+    public static final String PROPERTIES = "properties";
+
+    private static final String JMX_DOMAIN = "policy.gamechanger";
+    private static final Map<String, PhaseStats> PHASES = new ConcurrentHashMap<>();
+
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since startNanos against the phase
+     */
+    public static void record(String phase, long startNanos) {
+        PHASES.computeIfAbsent(phase, IngestMetrics::register).record(System.nanoTime() - startNanos);
+    }
+
+    public static List<PhaseSnapshot> snapshot() {
+        List<PhaseSnapshot> snapshots = new ArrayList<>();
+        PHASES.forEach((name, stats) -> snapshots.add(stats.snapshot(name)));
+        snapshots.sort((a, b) -> a.name.compareTo(b.name));
+        return snapshots;
+    }
+
+    public static void reset() {
+        PHASES.values().forEach(PhaseStats::reset);
+    }
+
+    private static PhaseStats register(String phase) {
+        PhaseStats stats = new PhaseStats();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(String.format("%s:type=IngestStats,name=%s", JMX_DOMAIN, ObjectName.quote(phase)));
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(new StandardMBean(stats, PhaseStatsMBean.class), name);
+        } catch (Exception e) {
+            // The stats are still available through policy.ingestStats
+        }
+        return stats;
+    }
+
+    public interface PhaseStatsMBean {
+        long getCount();
+        double getTotalMillis();
+        double getMeanMillis();
+        double getP50Millis();
+        double getP95Millis();
+        double getP99Millis();
+        double getMaxMillis();
+        void reset();
+    }
+
+    public static class PhaseStats implements PhaseStatsMBean {
+        private static final int BUCKETS = 64;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+        }
+
+        private double percentileMillis(double percentile) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) return 0;
+
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // Bucket i holds values below 2^i nanos, never report more than the max seen
+                    long upperBound = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : 1L << i);
+                    return toMillis(Math.min(upperBound, maxNanos.get()));
+                }
+            }
+            return toMillis(maxNanos.get());
+        }
+
+        private PhaseSnapshot snapshot(String name) {
+            return new PhaseSnapshot(name, getCount(), getTotalMillis(), getMeanMillis(), getP50Millis(), getP95Millis(), getP99Millis(), getMaxMillis());
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getTotalMillis() {
+            return toMillis(totalNanos.sum());
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : toMillis(totalNanos.sum()) / n;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return percentileMillis(0.50);
+        }
+
+        @Override
+        public double getP95Millis() {
+            return percentileMillis(0.95);
+        }
+
+        @Override
+        public double getP99Millis() {
+            return percentileMillis(0.99);
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return toMillis(maxNanos.get());
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    public static class PhaseSnapshot {
+        public final String name;
+        public final long count;
+        public final double totalMs;
+        public final double meanMs;
+        public final double p50Ms;
+        public final double p95Ms;
+        public final double p99Ms;
+        public final double maxMs;
+
+        public PhaseSnapshot(String name, long count, double totalMs, double meanMs, double p50Ms, double p95Ms, double p99Ms, double maxMs) {
+            this.name = name;
+            this.count = count;
+            this.totalMs = totalMs;
+            this.meanMs = meanMs;
+            this.p50Ms = p50Ms;
+            this.p95Ms = p95Ms;
+            this.p99Ms = p99Ms;
+            this.maxMs = maxMs;
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package policy.utils;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,4 +31,29 @@ public class JsonUtils {
         }
         return returnArray;
     }
+
+    public static JsonParser createParser(String jsonString) throws IOException {
+        return OBJECT_MAPPER.getFactory().createParser(jsonString);
+    }
+
+    /**
+     * Reads the array the parser is positioned on into a list of strings, leaving the parser on the END_ARRAY.
+     * Anything other than an array is skipped and read as an empty list.
+     */
+    public static List<String> getStringListFromJsonParser(JsonParser parser) throws IOException {
+        List<String> returnArray = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return returnArray;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken().isScalarValue()) {
+                returnArray.add(((JsonNode) parser.readValueAsTree()).asText());
+            } else {
+                parser.skipChildren();
+                returnArray.add("");
+            }
+        }
+        return returnArray;
+    }
 }
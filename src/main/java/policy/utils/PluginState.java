@@ -0,0 +1,40 @@
+package policy.utils;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Plugin bookkeeping, such as watermarks and cursors, persisted in the graph on
+ * PluginState nodes keyed by name so it survives restarts and commits with the work it tracks.
+ */
+public class PluginState {
+
+    public static final Label LABEL = Label.label("PluginState");
+
+    public static Object getProperty(Transaction tx, String name, String key, Object defaultValue) {
+        Node node = tx.findNode(LABEL, "name", name);
+        if (isNull(node)) return defaultValue;
+        return node.getProperty(key, defaultValue);
+    }
+
+    public static long getLong(Transaction tx, String name, String key, long defaultValue) {
+        return ((Number) getProperty(tx, name, key, defaultValue)).longValue();
+    }
+
+    public static void setProperty(Transaction tx, String name, String key, Object value) {
+        Node node = tx.findNode(LABEL, "name", name);
+        if (isNull(node)) {
+            node = tx.createNode(LABEL);
+            node.setProperty("name", name);
+        }
+        Util.setProperty(node, key, value);
+    }
+
+    public static void removeProperty(Transaction tx, String name, String key) {
+        Node node = tx.findNode(LABEL, "name", name);
+        if (!isNull(node)) node.removeProperty(key);
+    }
+}
@@ -0,0 +1,42 @@
+package policy.utils;
+
+/**
+ * Plugin settings, read from JVM system properties so they can be set in neo4j.conf with
+ * dbms.jvm.additional=-D&lt;setting&gt;=&lt;value&gt;
+ */
+public class Settings {
+
+    /**
+     * When true the ingest procedures refuse to run if the indexes they rely on are missing,
+     * otherwise they only log a warning
+     */
+    public static final String REQUIRE_SCHEMA = "gamechanger.ingest.require_schema";
+
+    public static boolean requireSchema() {
+        return Boolean.getBoolean(REQUIRE_SCHEMA);
+    }
+
+    /**
+     * The number of doc_id sets policy.getMainGraphView keeps results for, 0 disables the cache
+     */
+    public static final String GRAPH_VIEW_CACHE_SIZE = "gamechanger.graphview.cache_size";
+
+    public static int graphViewCacheSize() {
+        return Integer.getInteger(GRAPH_VIEW_CACHE_SIZE, 256);
+    }
+
+    /**
+     * Which relationships the ingest writes between a document and its topics, "both" for CONTAINS and the
+     * mirrored IS_IN, or "contains" for CONTAINS only. Traversals can read CONTAINS from the topic side.
+     */
+    public static final String TOPIC_EDGES = "gamechanger.ingest.topic_edges";
+    public static final String TOPIC_EDGES_BOTH = "both";
+    public static final String TOPIC_EDGES_CONTAINS = "contains";
+
+    public static boolean writeTopicIsIn() {
+        String topicEdges = System.getProperty(TOPIC_EDGES, TOPIC_EDGES_BOTH);
+        if (TOPIC_EDGES_CONTAINS.equalsIgnoreCase(topicEdges)) return false;
+        if (TOPIC_EDGES_BOTH.equalsIgnoreCase(topicEdges)) return true;
+        throw new IllegalArgumentException(String.format("%s must be '%s' or '%s', got '%s'", TOPIC_EDGES, TOPIC_EDGES_BOTH, TOPIC_EDGES_CONTAINS, topicEdges));
+    }
+}
@@ -11,10 +11,17 @@ import org.neo4j.graphdb.Label;
 import org.neo4j.internal.helpers.collection.Iterables;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Util {
     public static final Label[] NO_LABELS = new Label[0];
     public static final String[] EMPTY_ARRAY = new String[0];
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern DASH = Pattern.compile("\\p{Pd}");
 
     public static Label[] labels(Object labelNames) {
         if (labelNames==null) return NO_LABELS;
@@ -47,23 +54,87 @@ public class Util {
         return value;
     }
 
+    /**
+     * Normalizes a reference for matching, upper case with each run of whitespace collapsed to one space and every
+     * dash mapped to "-", so " ar  672\u201351" and "AR 672-51" have the same key. Dashes and spaces are kept, since
+     * where they fall tells citations such as "DoDI 1-23" and "DoDI 12-3" apart.
+     */
+    public static String refKey(String ref) {
+        if (ref == null) return null;
+        String key = WHITESPACE.matcher(ref.trim()).replaceAll(" ");
+        return DASH.matcher(key).replaceAll("-").toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * A stream that calls next for each element until it returns null. Chunked procedures return their progress
+     * through it, so each chunk only runs and commits when the caller reads its row, and the rows of the
+     * committed chunks reach the caller before a later chunk fails.
+     */
+    public static <T> Stream<T> lazyStream(Supplier<T> next) {
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                T value = next.get();
+                if (value == null) return false;
+                action.accept(value);
+                return true;
+            }
+        }, false);
+    }
+
     public static Relationship createNonDuplicateRelationship(Node fromNode, Node toNode, RelationshipType type, Log log) {
-        log.debug(String.format("Creating relationship from node %d to node %d", fromNode.getId(), toNode.getId()));
-        log.debug("fromNode relationships:");
+        return createNonDuplicateRelationship(fromNode, toNode, type, null, log);
+    }
+
+    /**
+     * Creates a relationship of the given type between the nodes unless one already exists.
+     * Relationships already seen in the batch are remembered in the cache so they aren't checked again.
+     * @param cache The batch cache, or null to always check the graph
+     * @return The new relationship, or null if it already existed
+     */
+    public static Relationship createNonDuplicateRelationship(Node fromNode, Node toNode, RelationshipType type, IngestCache cache, Log log) {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Creating relationship from node %d to node %d", fromNode.getId(), toNode.getId()));
+        }
 
-        if (Util.checkNodeRelationshipExists(fromNode, toNode, type, log)) {
+        long start = IngestMetrics.start();
+        if (cache != null && cache.hasRelationship(fromNode, toNode, type)) {
+            log.debug("\tRelationship between these nodes was already seen in this batch, returning null");
+            IngestMetrics.record(IngestMetrics.DEDUPE, start);
+            return null;
+        }
+        boolean exists = Util.checkNodeRelationshipExists(fromNode, toNode, type, log);
+        IngestMetrics.record(IngestMetrics.DEDUPE, start);
+
+        if (exists) {
+            if (cache != null) cache.putRelationship(fromNode, toNode, type);
             return null;
         } else {
             log.debug("Creating relationship");
-            return fromNode.createRelationshipTo(toNode, type);
+            Relationship relationship = fromNode.createRelationshipTo(toNode, type);
+            if (cache != null) cache.putRelationship(fromNode, toNode, type);
+            return relationship;
         }
     }
 
+    /**
+     * Checks for a relationship of the given type from fromNode to toNode, scanning the relationships
+     * of whichever endpoint has the smaller degree for that type and direction
+     */
     public static boolean checkNodeRelationshipExists(Node fromNode, Node toNode, RelationshipType type, Log log) {
-        for (Relationship relationship : fromNode.getRelationships(Direction.OUTGOING, type)) {
-            Node endNode = relationship.getEndNode();
-            log.debug(String.format("\tEnd node: %d", endNode.getId()));
-            if (endNode.getId() == toNode.getId()) {
+        int outgoingDegree = fromNode.getDegree(type, Direction.OUTGOING);
+        if (outgoingDegree == 0) return false;
+        int incomingDegree = toNode.getDegree(type, Direction.INCOMING);
+        if (incomingDegree == 0) return false;
+
+        boolean debug = log.isDebugEnabled();
+        boolean scanFromNode = outgoingDegree <= incomingDegree;
+        Node scanNode = scanFromNode ? fromNode : toNode;
+        long otherNodeId = scanFromNode ? toNode.getId() : fromNode.getId();
+        for (Relationship relationship : scanNode.getRelationships(scanFromNode ? Direction.OUTGOING : Direction.INCOMING, type)) {
+            long nodeId = scanFromNode ? relationship.getEndNodeId() : relationship.getStartNodeId();
+            if (debug) log.debug(String.format("\tOther node: %d", nodeId));
+            if (nodeId == otherNodeId) {
                 log.debug("\tRelationship between these nodes already exists, returning null");
                 return true;
             }
@@ -75,11 +146,66 @@ public class Util {
         public final Number nodesCreated;
         public final Number propertiesSet;
         public final Number relationshipsCreated;
+        public final Number documentsSkipped;
+        public final Number propertiesUnchanged;
 
         public Outgoing(int nodesCreated, int relationshipsCreated, int propertiesSet) {
+            this(nodesCreated, relationshipsCreated, propertiesSet, 0, 0);
+        }
+
+        /**
+         * @param documentsSkipped Documents whose version_hash_s matched the stored one and were not re-ingested
+         * @param propertiesUnchanged Property writes avoided because the stored value was already up to date
+         */
+        public Outgoing(int nodesCreated, int relationshipsCreated, int propertiesSet, int documentsSkipped, int propertiesUnchanged) {
             this.nodesCreated = nodesCreated;
             this.relationshipsCreated = relationshipsCreated;
             this.propertiesSet = propertiesSet;
+            this.documentsSkipped = documentsSkipped;
+            this.propertiesUnchanged = propertiesUnchanged;
+        }
+    }
+
+    public static class ChunkProgress {
+        public final Number chunk;
+        public final Number documentsProcessed;
+        public final Number cursor;
+        public final Number nodesCreated;
+        public final Number propertiesSet;
+        public final Number relationshipsCreated;
+
+        public ChunkProgress(long chunk, long documentsProcessed, long cursor, int nodesCreated, int relationshipsCreated, int propertiesSet) {
+            this.chunk = chunk;
+            this.documentsProcessed = documentsProcessed;
+            this.cursor = cursor;
+            this.nodesCreated = nodesCreated;
+            this.relationshipsCreated = relationshipsCreated;
+            this.propertiesSet = propertiesSet;
+        }
+    }
+
+    public static class PruneProgress {
+        public final Number chunk;
+        public final Number documentsPruned;
+        public final Number cursor;
+        public final Number placeholdersCreated;
+        public final Number relationshipsDeleted;
+        public final Number topicsDeleted;
+        public final Number entitiesDeleted;
+        public final Number placeholdersDeleted;
+        public final Number referencesRepointed;
+
+        public PruneProgress(long chunk, long documentsPruned, long cursor, int placeholdersCreated, int relationshipsDeleted,
+                             int topicsDeleted, int entitiesDeleted, int placeholdersDeleted, int referencesRepointed) {
+            this.chunk = chunk;
+            this.documentsPruned = documentsPruned;
+            this.cursor = cursor;
+            this.placeholdersCreated = placeholdersCreated;
+            this.relationshipsDeleted = relationshipsDeleted;
+            this.topicsDeleted = topicsDeleted;
+            this.entitiesDeleted = entitiesDeleted;
+            this.placeholdersDeleted = placeholdersDeleted;
+            this.referencesRepointed = referencesRepointed;
         }
     }
 
@@ -93,6 +219,21 @@ public class Util {
         }
     }
 
+    public static class GraphElement {
+        public final Node node;
+        public final Relationship relationship;
+
+        public GraphElement(Node node) {
+            this.node = node;
+            this.relationship = null;
+        }
+
+        public GraphElement(Relationship relationship) {
+            this.node = null;
+            this.relationship = relationship;
+        }
+    }
+
     public static Map<String,Object> map(Object ... values) {
         return Util._map(values);
     }
@@ -9,8 +9,13 @@ import org.neo4j.harness.junit.rule.Neo4jRule;
 import static org.neo4j.internal.helpers.collection.Iterators.count;
 
 import org.junit.Rule;
+import policy.utils.Settings;
 import policy.utils.Util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 
 public class CreateNodesFromJsonTest {
@@ -44,11 +49,13 @@ public class CreateNodesFromJsonTest {
 
             NullLog log = NullLog.getInstance();
 
-            Util.Outgoing expected = new Util.Outgoing(7, 11, 51);
+            Util.Outgoing expected = new Util.Outgoing(7, 11, 53);
             Util.Outgoing actual = testClass.handleCreateDocumentNodesFromJson(testDocumentJson, tx, log);
             Util.Outgoing duplicate = testClass.handleCreateDocumentNodesFromJson(testDocumentJson, tx, log);
 
             assertEquals("The outgoing should be all 0s because its a duplicate", 0, duplicate.nodesCreated);
+            assertEquals("The duplicate should be skipped by its version hash", 1, duplicate.documentsSkipped);
+            assertEquals("The duplicate should not write any properties", 0, duplicate.propertiesSet);
             assertEquals("The outgoing should match the expected nodes created", expected.nodesCreated, actual.nodesCreated);
             assertEquals("The outgoing should match the expected properties set", expected.propertiesSet, actual.propertiesSet);
             assertEquals("The outgoing should match the expected relationships created", expected.relationshipsCreated, actual.relationshipsCreated);
@@ -59,6 +66,25 @@ public class CreateNodesFromJsonTest {
         }
     }
 
+    @Test
+    public void shouldOnlyWriteContainsInContainsTopicEdgeMode() {
+        CreateNodesFromJson testClass = new CreateNodesFromJson();
+        System.setProperty(Settings.TOPIC_EDGES, Settings.TOPIC_EDGES_CONTAINS);
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+
+            Util.Outgoing actual = testClass.handleCreateDocumentNodesFromJson(testDocumentJson, tx, NullLog.getInstance());
+
+            assertEquals("Should only write CONTAINS for the 5 topics and MENTIONS for the entity", 6, actual.relationshipsCreated);
+            assertEquals("Should not write the IS_IN relevancy", 48, actual.propertiesSet);
+            assertEquals("Should not create any IS_IN relationships", 0,
+                    count(tx.execute("MATCH ()-[r:IS_IN]->() RETURN r").columnAs("r")));
+
+            tx.commit();
+        } finally {
+            System.clearProperty(Settings.TOPIC_EDGES);
+        }
+    }
+
     @Test
     public void shouldCreateAEntityNodeFromJson() {
         CreateNodesFromJson testClass = new CreateNodesFromJson();
@@ -79,4 +105,136 @@ public class CreateNodesFromJsonTest {
             tx.commit();
         }
     }
+
+    @Test
+    public void shouldCreateOrgAndRoleHierarchyFromJson() {
+        CreateNodesFromJson testClass = new CreateNodesFromJson();
+        String orgsJson = "[" +
+                "{\"Name\": \"Department of Defense\", \"Aliases\": \"DoD\", \"DoDComponent\": true, \"OSDComponent\": false, " +
+                "\"Parent\": \"\", \"Type\": \"Department\", \"Subtype\": \"\", \"Head\": \"Secretary of Defense\"}," +
+                "{\"Name\": \"Department of the Army\", \"Aliases\": \"DA\", \"DoDComponent\": true, \"OSDComponent\": false, " +
+                "\"Parent\": \"Department of Defense\", \"Type\": \"Department\", \"Subtype\": \"Military Department\", \"Head\": \"\"}" +
+                "]";
+        String rolesJson = "[" +
+                "{\"Name\": \"Secretary of Defense\", \"Aliases\": \"SecDef\", \"Parent\": \"\", \"OrgParent\": \"Department of Defense\", " +
+                "\"Type\": \"Role\", \"Subtype\": \"\"}," +
+                "{\"Name\": \"Secretary of the Army\", \"Aliases\": \"SECARMY\", \"Parent\": \"Secretary of Defense\", \"OrgParent\": \"Department of the Army\", " +
+                "\"Type\": \"Role\", \"Subtype\": \"\"}" +
+                "]";
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+
+            NullLog log = NullLog.getInstance();
+
+            Util.Outgoing orgs = testClass.handleCreateOrgNodesFromJson(orgsJson, tx, log);
+            Util.Outgoing roles = testClass.handleCreateRoleNodesFromJson(rolesJson, tx, log);
+            Util.Outgoing duplicateOrgs = testClass.handleCreateOrgNodesFromJson(orgsJson, tx, log);
+            Util.Outgoing duplicateRoles = testClass.handleCreateRoleNodesFromJson(rolesJson, tx, log);
+
+            assertEquals("Each name should be created once", 5, orgs.nodesCreated);
+            assertEquals("The outgoing should match the expected relationships created", 5, orgs.relationshipsCreated);
+            assertEquals("The outgoing should match the expected properties set", 13, orgs.propertiesSet);
+            assertEquals("Only the new role names should be created", 2, roles.nodesCreated);
+            assertEquals("The head of the org should not also get HAS_ROLE", 4, roles.relationshipsCreated);
+            assertEquals("Re-importing the orgs should not create nodes", 0, duplicateOrgs.nodesCreated);
+            assertEquals("Re-importing the orgs should not create relationships", 0, duplicateOrgs.relationshipsCreated);
+            assertEquals("Re-importing the orgs should not write properties", 0, duplicateOrgs.propertiesSet);
+            assertEquals("Re-importing the roles should not create nodes", 0, duplicateRoles.nodesCreated);
+            assertEquals("Re-importing the roles should not create relationships", 0, duplicateRoles.relationshipsCreated);
+            assertEquals("Re-importing the roles should not write properties", 0, duplicateRoles.propertiesSet);
+            assertEquals("Should find 7 entity nodes", 7, count(tx.findNodes(Label.label( "Entity" ))));
+
+            tx.commit();
+        }
+    }
+
+    @Test
+    public void shouldCreateDocumentNodesFromJsonBatch() {
+        CreateNodesFromJson testClass = new CreateNodesFromJson();
+        testClass.db = neo4j.defaultDatabaseService();
+        testClass.log = NullLog.getInstance();
+
+        List<String> jsons = Arrays.asList(
+                testDocumentJson,
+                testDocumentJson.replace("AGO 1976-02.pdf_0", "AGO 1976-03.pdf_0"),
+                testDocumentJson.replace("AGO 1976-02.pdf_0", "AGO 1976-04.pdf_0")
+        );
+
+        Util.Outgoing actual = testClass.createDocumentNodesFromJsonBatch(jsons, 2).findFirst().get();
+
+        assertEquals("The outgoing should count the shared topic and entity nodes once", 9, actual.nodesCreated);
+        assertEquals("The outgoing should match the expected relationships created", 33, actual.relationshipsCreated);
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+            assertEquals("Should find 3 document nodes", 3, count(tx.findNodes(Label.label( "Document" ))));
+            assertEquals("Should find 5 topic nodes", 5, count(tx.findNodes(Label.label( "Topic" ))));
+        }
+    }
+
+    @Test
+    public void shouldOnlyWriteChangedDocumentProperties() {
+        CreateNodesFromJson testClass = new CreateNodesFromJson();
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+
+            NullLog log = NullLog.getInstance();
+
+            testClass.handleCreateDocumentNodesFromJson(testDocumentJson, tx, log);
+            String changedJson = testDocumentJson
+                    .replace("\"title\": \"HQDA GENERAL ORDERS (MULTITLE TITLES BY PARAGRAPHS)\"", "\"title\": \"HQDA GENERAL ORDERS\"")
+                    .replace("bb39c1a3cd42", "cc39c1a3cd42");
+            Util.Outgoing changed = testClass.handleCreateDocumentNodesFromJson(changedJson, tx, log);
+
+            assertEquals("The changed document should not be skipped", 0, changed.documentsSkipped);
+            assertEquals("Only the title, version hash and ingest timestamp should be written", 3, changed.propertiesSet);
+            assertEquals("Every other document property should be left as is", 33, changed.propertiesUnchanged);
+            assertEquals("Should update the title", "HQDA GENERAL ORDERS",
+                    tx.findNode(Label.label("Document"), "doc_id", "AGO 1976-02.pdf_0").getProperty("title"));
+
+            tx.commit();
+        }
+    }
+
+    @Test
+    public void shouldReportAnUnchangedDocumentWithoutVersionHash() {
+        CreateNodesFromJson testClass = new CreateNodesFromJson();
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+
+            NullLog log = NullLog.getInstance();
+
+            String unhashedJson = testDocumentJson.replace("bb39c1a3cd42a771ee1123efb46052a55f939b9b66be2a452fcc5fea39d51b29", "");
+            testClass.handleCreateDocumentNodesFromJson(unhashedJson, tx, log);
+            Object ingestTimestamp = tx.findNode(Label.label("Document"), "doc_id", "AGO 1976-02.pdf_0").getProperty("ingest_timestamp");
+            Util.Outgoing reingested = testClass.handleCreateDocumentNodesFromJson(unhashedJson, tx, log);
+
+            assertEquals("Without a version hash the document can't be skipped", 0, reingested.documentsSkipped);
+            assertEquals("Nothing changed so no properties should be written", 0, reingested.propertiesSet);
+            assertEquals("Every document property should be reported unchanged", 36, reingested.propertiesUnchanged);
+            assertEquals("The ingest timestamp should be left as is", ingestTimestamp,
+                    tx.findNode(Label.label("Document"), "doc_id", "AGO 1976-02.pdf_0").getProperty("ingest_timestamp"));
+
+            tx.commit();
+        }
+    }
+
+    @Test
+    public void shouldCreateDocumentNodesFromJsonInParallel() {
+        CreateNodesFromJson testClass = new CreateNodesFromJson();
+        testClass.db = neo4j.defaultDatabaseService();
+        testClass.log = NullLog.getInstance();
+
+        List<String> jsons = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            jsons.add(testDocumentJson.replace("AGO 1976-02.pdf_0", String.format("Parallel %d.pdf_0", i)));
+        }
+        jsons.add(jsons.get(0));
+
+        Util.Outgoing actual = testClass.createDocumentNodesFromJsonParallel(jsons, 2, 3).findFirst().get();
+
+        assertEquals("Should create the documents and their shared topic and entity nodes once", 12, actual.nodesCreated);
+        assertEquals("Every document should link to its topics and entity", 66, actual.relationshipsCreated);
+        assertEquals("The repeated document should be skipped", 1, actual.documentsSkipped);
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+            assertEquals("Should find 6 document nodes", 6, count(tx.findNodes(Label.label( "Document" ))));
+            assertEquals("Should find 5 topic nodes", 5, count(tx.findNodes(Label.label( "Topic" ))));
+            assertEquals("Should find 1 entity node", 1, count(tx.findNodes(Label.label( "Entity" ))));
+        }
+    }
 }
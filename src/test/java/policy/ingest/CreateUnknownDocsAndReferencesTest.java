@@ -5,13 +5,18 @@ import org.neo4j.driver.*;
 import org.neo4j.driver.Record;
 import org.neo4j.harness.Neo4j;
 import org.neo4j.harness.Neo4jBuilders;
+import org.neo4j.logging.NullLog;
+import policy.utils.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.util.List;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class CreateUnknownDocsAndReferencesTest {
@@ -21,17 +26,19 @@ public class CreateUnknownDocsAndReferencesTest {
 
     @BeforeAll
     void initializeNeo4j() throws IOException {
+        this.embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
+                .withProcedure(CreateUnknownDocsAndReferences.class)
+                .withFixture(documentsFixture())
+                .build();
+    }
 
+    private String documentsFixture() throws IOException {
         var sw = new StringWriter();
         try (var in = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("/documents.cypher")))) {
             in.transferTo(sw);
             sw.flush();
         }
-
-        this.embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
-                .withProcedure(CreateUnknownDocsAndReferences.class)
-                .withFixture(sw.toString())
-                .build();
+        return sw.toString();
     }
 
     @Test
@@ -43,8 +50,164 @@ public class CreateUnknownDocsAndReferencesTest {
             Record record = session.run( "CALL policy.createUKNDocumentNodesAndAllReferences()").single();
 
             assertEquals("The outgoing should match the expected nodes created", 2, record.get("nodesCreated").asInt());
-            assertEquals("The outgoing should match the expected properties set", 20, record.get("propertiesSet").asInt());
+            assertEquals("The outgoing should match the expected properties set", 23, record.get("propertiesSet").asInt());
             assertEquals("The outgoing should match the expected relationships created", 4, record.get("relationshipsCreated").asInt());
         }
     }
+
+    @Test
+    public void shouldOnlyLinkNewDocumentsAndReplacePlaceholders() {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(CreateUnknownDocsAndReferences.class).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            session.run("CREATE (:Document {doc_id: 'AR 1.pdf_0', ref_name: 'AR 1', ref_list: ['AR 2'], ingest_timestamp: timestamp()})").consume();
+            Record first = session.run("CALL policy.createUKNDocumentNodesAndNewReferences()").single();
+            assertEquals("Should create a placeholder for the missing reference", 1, first.get("nodesCreated").asInt());
+            assertEquals("Should reference the placeholder", 1, first.get("relationshipsCreated").asInt());
+
+            session.run("CREATE (:Document {doc_id: 'AR 2.pdf_0', ref_name: 'AR 2', ref_list: [], ingest_timestamp: timestamp() + 1})").consume();
+            Record second = session.run("CALL policy.createUKNDocumentNodesAndNewReferences(0)").single();
+            assertEquals("Should not create any placeholders", 0, second.get("nodesCreated").asInt());
+            assertEquals("Should re-point the placeholder reference", 1, second.get("relationshipsCreated").asInt());
+            assertEquals("The placeholder should be removed", 0, session.run("MATCH (u:UKN_Document) RETURN count(u) AS c").single().get("c").asInt());
+            assertEquals("The first document should reference the new one", 1,
+                    session.run("MATCH (:Document {ref_name: 'AR 1'})-[r:REFERENCES]->(:Document {ref_name: 'AR 2'}) RETURN count(r) AS c").single().get("c").asInt());
+
+            Record third = session.run("CALL policy.createUKNDocumentNodesAndNewReferences(0)").single();
+            assertEquals("Nothing new should be linked", 0, third.get("relationshipsCreated").asInt());
+        }
+    }
+
+    @Test
+    public void shouldCreateReferencesInChunksAndResume() throws IOException {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(CreateUnknownDocsAndReferences.class).withFixture(documentsFixture()).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            // Pretend a run was interrupted after the first document
+            session.run("MATCH (d:Document) WITH min(id(d)) AS first CREATE (:PluginState {name: 'reference_linking', cursor_timestamp: 0, cursor: first})").consume();
+
+            List<Record> resumed = session.run("CALL policy.createUKNDocumentNodesAndAllReferencesInChunks(1)").list();
+            assertEquals("Should only link the document after the cursor", 1, resumed.size());
+            assertEquals("Should report the documents in the chunk", 1, resumed.get(0).get("documentsProcessed").asInt());
+            assertEquals("The second document references two unknown documents", 2, resumed.get(0).get("nodesCreated").asInt());
+
+            List<Record> chunks = session.run("CALL policy.createUKNDocumentNodesAndAllReferencesInChunks(1)").list();
+            assertEquals("Should start over once the previous run finished", 2, chunks.size());
+            int nodesCreated = 0;
+            for (Record chunk : chunks) {
+                nodesCreated += chunk.get("nodesCreated").asInt();
+            }
+            assertEquals("Both UKN_Document nodes should exist after the two runs", 2,
+                    session.run("MATCH (u:UKN_Document) RETURN count(u) AS c").single().get("c").asInt());
+            assertEquals("The placeholders from the resumed run should be reused", 0, nodesCreated);
+            assertEquals("Should create all the references", 4,
+                    session.run("MATCH (:Document)-[r]->() RETURN count(r) AS c").single().get("c").asInt());
+        }
+    }
+
+    @Test
+    public void shouldResumeByIngestTimestampBeforeNodeId() throws IOException {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(CreateUnknownDocsAndReferences.class).withFixture(documentsFixture()).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            // The document in the lower node id was ingested after the cursor was written, as it is when a pruned id is reused
+            session.run("MATCH (d:Document) SET d.ingest_timestamp = CASE d.ref_name WHEN 'AGO 1976-02' THEN 200 ELSE 100 END").consume();
+            session.run("MATCH (d:Document {ref_name: 'Test 1'}) CREATE (:PluginState {name: 'reference_linking', cursor_timestamp: 100, cursor: id(d)})").consume();
+
+            List<Record> resumed = session.run("CALL policy.createUKNDocumentNodesAndAllReferencesInChunks(1)").list();
+            assertEquals("Should link the document ingested after the cursor", 1, resumed.size());
+            assertEquals("AGO 1976-02 references Test 1 and the unknown Test 2", 2, resumed.get(0).get("relationshipsCreated").asInt());
+            assertEquals("Should only link AGO 1976-02", 2,
+                    session.run("MATCH (:Document {ref_name: 'AGO 1976-02'})-[r]->() RETURN count(r) AS c").single().get("c").asInt());
+        }
+    }
+
+    @Test
+    public void shouldOnlyRunTheChunksThatAreRead() throws IOException {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(CreateUnknownDocsAndReferences.class).withFixture(documentsFixture()).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            CreateUnknownDocsAndReferences linking = new CreateUnknownDocsAndReferences();
+            linking.db = neo4j.defaultDatabaseService();
+            linking.log = NullLog.getInstance();
+            try (Stream<Util.ChunkProgress> chunks = linking.handleCreateUKNDocumentNodesAndAllReferencesInChunks(1, 1, linking.log)) {
+                assertEquals("Should return the first chunk", 0, chunks.iterator().next().chunk.intValue());
+            }
+            assertTrue("Should keep the cursor of the committed chunk",
+                    session.run("MATCH (s:PluginState {name: 'reference_linking'}) RETURN s.cursor IS NOT NULL AS c").single().get("c").asBoolean());
+
+            List<Record> resumed = session.run("CALL policy.createUKNDocumentNodesAndAllReferencesInChunks(1)").list();
+            assertEquals("Should resume after the chunk that was read", 1, resumed.size());
+            assertEquals("Should create all the references", 4,
+                    session.run("MATCH (:Document)-[r]->() RETURN count(r) AS c").single().get("c").asInt());
+        }
+    }
+
+    @Test
+    public void shouldBuildTheReferenceMapInParallel() {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(CreateUnknownDocsAndReferences.class).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            session.run("UNWIND range(0, 2499) AS i CREATE (:Document {doc_id: 'R ' + i + '.pdf_0', ref_name: 'R ' + i, ref_list: ['R ' + (i + 1)]})").consume();
+
+            Record record = session.run("CALL policy.createUKNDocumentNodesAndAllReferences(4)").single();
+            assertEquals("Only the last reference should be unknown", 1, record.get("nodesCreated").asInt());
+            assertEquals("Every document should reference the next one", 2500, record.get("relationshipsCreated").asInt());
+        }
+    }
+
+    @Test
+    public void shouldReferenceEveryDocumentSharingARefName() {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(CreateUnknownDocsAndReferences.class).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            session.run("CREATE (:Document {doc_id: 'AR 1.pdf_0', ref_name: 'AR 1', ref_list: []})," +
+                    "(:Document {doc_id: 'AR 1.pdf_1', ref_name: 'AR 1', ref_list: []})," +
+                    "(:Document {doc_id: 'AR 2.pdf_0', ref_name: 'AR 2', ref_list: ['AR 1', 'AR 1', 'AR 3']})").consume();
+
+            Record record = session.run("CALL policy.createUKNDocumentNodesAndAllReferences(1)").single();
+            assertEquals("Only AR 3 should be unknown", 1, record.get("nodesCreated").asInt());
+            assertEquals("Both AR 1 documents and the placeholder should be referenced once", 3, record.get("relationshipsCreated").asInt());
+        }
+    }
+
+    @Test
+    public void shouldResolveReferenceVariantsByRefKey() {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(CreateUnknownDocsAndReferences.class).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            session.run("CREATE (:Document {doc_id: 'AR 672-51.pdf_0', ref_name: 'AR 672-51', ref_key: 'AR 672-51', ref_list: [], ingest_timestamp: timestamp()})," +
+                    "(:Document {doc_id: 'AR 1.pdf_0', ref_name: 'AR 1', ref_key: 'AR 1', ref_list: ['ar  672-51', 'AR 672\u201351', 'DoDD 5-1', 'dodd 5 - 1', 'DODD 5 \u2013 1'], ingest_timestamp: timestamp()})").consume();
+
+            Record record = session.run("CALL policy.createUKNDocumentNodesAndNewReferences()").single();
+            assertEquals("Only the variants of DoDD 5 - 1 should share a placeholder", 2, record.get("nodesCreated").asInt());
+            assertEquals("Each distinct key should resolve to one document or placeholder", 3, record.get("relationshipsCreated").asInt());
+            assertEquals("The placeholders should have the ref_keys", List.of("DODD 5 - 1", "DODD 5-1"),
+                    session.run("MATCH (u:UKN_Document) RETURN u.ref_key AS k ORDER BY k").list(r -> r.get("k").asString()));
+        }
+    }
+
+    @Test
+    public void shouldResolveDocumentsStoredBeforeRefKeyByRefName() {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(CreateUnknownDocsAndReferences.class).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            // Ingested and linked before ref_key was stored, and not yet backfilled
+            session.run("CREATE (:Document {doc_id: 'AR 2.pdf_0', ref_name: 'AR 2', ref_list: [], ingest_timestamp: 0})," +
+                    "(:Document {doc_id: 'AR 1.pdf_0', ref_name: 'AR 1', ref_key: 'AR 1', ref_list: ['AR 2'], ingest_timestamp: timestamp()})").consume();
+
+            Record record = session.run("CALL policy.createUKNDocumentNodesAndNewReferences()").single();
+            assertEquals("Should not create a placeholder", 0, record.get("nodesCreated").asInt());
+            assertEquals("The new document should reference the old one", 1,
+                    session.run("MATCH (:Document {ref_name: 'AR 1'})-[r:REFERENCES]->(:Document {ref_name: 'AR 2'}) RETURN count(r) AS c").single().get("c").asInt());
+        }
+    }
 }
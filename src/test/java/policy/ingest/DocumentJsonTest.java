@@ -0,0 +1,37 @@
+package policy.ingest;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class DocumentJsonTest {
+
+    @Test
+    public void shouldReadTheFieldsUsedByTheIngest() throws Throwable {
+        DocumentJson document = DocumentJson.parse(CreateNodesFromJsonTest.testDocumentJson);
+
+        assertEquals("The id should match", "AGO 1976-02.pdf_0", document.getText("id", ""));
+        assertEquals("The page count should match", 6, document.getInt("page_count", 0));
+        assertEquals("A null score should use the default", 0, document.getDouble("kw_doc_score_r", 0), 0);
+        assertEquals("Should read all the references", 7, document.getReferences().size());
+        assertEquals("Should read all the keywords", 10, document.getKeywords().size());
+        assertEquals("Should read all the topics", 5, document.getTopics().size());
+        assertEquals("Should read the entity counts", Map.of("United States Army", 6), document.getEntityCounts());
+    }
+
+    @Test
+    public void shouldSkipEntityParagraphsAndUnknownSubtrees() throws Throwable {
+        String json = "{\"unused\": {\"nested\": [1, {\"deep\": [2, 3]}]}, " +
+                "\"entities\": {\"entityPars\": {\"Org A\": [[1, 2], {\"p\": 3}], \"Org B\": []}, \"entityCounts\": {\"Org A\": 4}}, " +
+                "\"id\": \"Test.pdf_0\", \"ref_list\": [\"AR 1\", \"AR 2\"]}";
+        DocumentJson document = DocumentJson.parse(json);
+
+        assertEquals("Fields after skipped subtrees should still be read", "Test.pdf_0", document.getText("id", ""));
+        assertEquals("Should read the references", Arrays.asList("AR 1", "AR 2"), document.getReferences());
+        assertEquals("Entities without a count should default to 0", Map.of("Org A", 4, "Org B", 0), document.getEntityCounts());
+        assertEquals("Missing fields should use the default", "", document.getText("title", ""));
+    }
+}
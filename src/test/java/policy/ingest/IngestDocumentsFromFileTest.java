@@ -0,0 +1,92 @@
+package policy.ingest;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.driver.*;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.exceptions.ClientException;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class IngestDocumentsFromFileTest {
+
+    private static final Config driverConfig = Config.builder().withoutEncryption().build();
+    private Neo4j embeddedDatabaseServer;
+    private Path importDirectory;
+
+    @BeforeAll
+    void initializeNeo4j() throws IOException {
+        this.importDirectory = Files.createTempDirectory("import");
+        this.embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
+                .withConfig(GraphDatabaseSettings.load_csv_file_url_root, importDirectory)
+                .withProcedure(CreateNodesFromJson.class)
+                .build();
+    }
+
+    @AfterAll
+    void closeNeo4j() {
+        this.embeddedDatabaseServer.close();
+    }
+
+    private static String document(String docId) {
+        return CreateNodesFromJsonTest.testDocumentJson.replace("AGO 1976-02.pdf_0", docId);
+    }
+
+    @Test
+    public void shouldIngestDocumentsFromJsonLinesFile() throws IOException {
+        Files.writeString(importDirectory.resolve("documents.jsonl"),
+                document("File 1.pdf_0") + "\n\n" + document("File 2.pdf_0") + "\n" + document("File 3.pdf_0") + "\n");
+
+        try(Driver driver = GraphDatabase.driver(this.embeddedDatabaseServer.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            Record record = session.run("CALL policy.ingestDocumentsFromFile('documents.jsonl', 2)").single();
+
+            assertEquals("Should create the documents and their shared topics and entities", 9, record.get("nodesCreated").asInt());
+            assertEquals("Should find the 3 documents", 3,
+                    session.run("MATCH (d:Document) WHERE d.doc_id STARTS WITH 'File ' RETURN count(d) AS c").single().get("c").asInt());
+        }
+    }
+
+    @Test
+    public void shouldIngestDocumentsFromGzippedFile() throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(importDirectory.resolve("documents.jsonl.gz")));
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            writer.write(document("Gzip 1.pdf_0") + "\n" + document("Gzip 2.pdf_0") + "\n");
+        }
+
+        try(Driver driver = GraphDatabase.driver(this.embeddedDatabaseServer.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            session.run("CALL policy.ingestDocumentsFromFile('/documents.jsonl.gz')").consume();
+
+            assertEquals("Should find the 2 documents", 2,
+                    session.run("MATCH (d:Document) WHERE d.doc_id STARTS WITH 'Gzip ' RETURN count(d) AS c").single().get("c").asInt());
+        }
+    }
+
+    @Test
+    public void shouldRefuseFilesOutsideTheImportDirectory() {
+        try(Driver driver = GraphDatabase.driver(this.embeddedDatabaseServer.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            ClientException e = assertThrows(ClientException.class,
+                    () -> session.run("CALL policy.ingestDocumentsFromFile('../outside.jsonl')").consume());
+            assertTrue("Should say the path is outside the import directory", e.getMessage().contains("outside the import directory"));
+        }
+    }
+}
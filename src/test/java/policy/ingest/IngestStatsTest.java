@@ -0,0 +1,65 @@
+package policy.ingest;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.*;
+import org.neo4j.driver.Record;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+import policy.utils.IngestMetrics;
+import policy.utils.Util;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class IngestStatsTest {
+
+    private static final Config driverConfig = Config.builder().withoutEncryption().build();
+    private Neo4j embeddedDatabaseServer;
+
+    @BeforeAll
+    void initializeNeo4j() {
+        this.embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
+                .withProcedure(CreateNodesFromJson.class)
+                .withProcedure(IngestStats.class)
+                .build();
+    }
+
+    @AfterAll
+    void closeNeo4j() {
+        this.embeddedDatabaseServer.close();
+    }
+
+    @Test
+    public void shouldReportAndResetIngestStats() throws Exception {
+        try(Driver driver = GraphDatabase.driver(this.embeddedDatabaseServer.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            IngestMetrics.reset();
+            session.run("CALL policy.createDocumentNodesFromJson($json)", Util.map("json", CreateNodesFromJsonTest.testDocumentJson)).consume();
+
+            Map<String, Record> stats = session.run("CALL policy.ingestStats(true)").list().stream()
+                    .collect(Collectors.toMap(record -> record.get("name").asString(), record -> record));
+
+            assertEquals("Should time the procedure call", 1, stats.get("policy.createDocumentNodesFromJson").get("count").asLong());
+            assertEquals("Should time the parse", 1, stats.get(IngestMetrics.PARSE).get("count").asLong());
+            assertEquals("Should time the document, topic and entity lookups", 7, stats.get(IngestMetrics.LOOKUP).get("count").asLong());
+            assertEquals("Should time each relationship check", 11, stats.get(IngestMetrics.DEDUPE).get("count").asLong());
+            assertTrue("The p99 should not be below the p50", stats.get(IngestMetrics.DEDUPE).get("p99Ms").asDouble() >= stats.get(IngestMetrics.DEDUPE).get("p50Ms").asDouble());
+            assertTrue("Each phase should be registered with JMX", ManagementFactory.getPlatformMBeanServer()
+                    .isRegistered(new ObjectName("policy.gamechanger:type=IngestStats,name=\"parse\"")));
+
+            List<Record> afterReset = session.run("CALL policy.ingestStats()").list();
+            for (Record record : afterReset) {
+                assertEquals("The stats should be reset", 0, record.get("count").asLong());
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package policy.ingest;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.*;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.exceptions.ClientException;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class PruneRevokedDocumentsTest {
+
+    private static final Config driverConfig = Config.builder().withoutEncryption().build();
+
+    private static final String revokedGraph =
+            "CREATE (a:Document {doc_id: 'AR 1.pdf_0', ref_name: 'AR 1', is_revoked_b: false})" +
+            "CREATE (b:Document {doc_id: 'AR 2.pdf_0', ref_name: 'AR 2', is_revoked_b: true})" +
+            "CREATE (c:Document {doc_id: 'AR 3.pdf_0', ref_name: 'AR 3', is_revoked_b: true})" +
+            "CREATE (shared:Topic {name: 'shared'}), (only:Topic {name: 'only'}), (army:Entity {name: 'Army'}), (ukn:UKN_Document {doc_id: 'UKN Document: AR 9'})" +
+            "CREATE (a)-[:CONTAINS]->(shared), (shared)-[:IS_IN]->(a), (b)-[:CONTAINS]->(shared), (shared)-[:IS_IN]->(b)" +
+            "CREATE (b)-[:CONTAINS]->(only), (only)-[:IS_IN]->(b), (c)-[:MENTIONS]->(army), (c)-[:REFERENCES_UKN]->(ukn)" +
+            "CREATE (a)-[:REFERENCES]->(b), (a)-[:REFERENCES]->(c)";
+
+    @Test
+    public void shouldDeleteRevokedDocumentsAndOrphans() {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(PruneRevokedDocuments.class).withFixture(revokedGraph).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            List<Record> chunks = session.run("CALL policy.pruneRevokedDocuments(1)").list();
+            assertEquals("Should commit one chunk per revoked document", 2, chunks.size());
+            int topicsDeleted = 0;
+            int entitiesDeleted = 0;
+            int placeholdersDeleted = 0;
+            for (Record chunk : chunks) {
+                assertEquals("Each chunk should prune one document", 1, chunk.get("documentsPruned").asInt());
+                topicsDeleted += chunk.get("topicsDeleted").asInt();
+                entitiesDeleted += chunk.get("entitiesDeleted").asInt();
+                placeholdersDeleted += chunk.get("placeholdersDeleted").asInt();
+            }
+            assertEquals("Only the topic of the revoked document should be deleted", 1, topicsDeleted);
+            assertEquals("The entity only the revoked document mentioned should be deleted", 1, entitiesDeleted);
+            assertEquals("The placeholder only the revoked document referenced should be deleted", 1, placeholdersDeleted);
+            assertEquals("Only the unrevoked document should be left", 1,
+                    session.run("MATCH (d:Document) RETURN count(d) AS c").single().get("c").asInt());
+            assertEquals("The shared topic should keep its edges", 2,
+                    session.run("MATCH (:Topic {name: 'shared'})-[r]-() RETURN count(r) AS c").single().get("c").asInt());
+
+            assertEquals("A second run should have nothing to prune", 0, session.run("CALL policy.pruneRevokedDocuments()").list().size());
+        }
+    }
+
+    @Test
+    public void shouldReplaceReferencedRevokedDocumentsWithPlaceholders() {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(PruneRevokedDocuments.class).withFixture(revokedGraph).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            Record record = session.run("CALL policy.pruneRevokedDocuments(10, 'placeholder')").single();
+            assertEquals("Should prune both revoked documents", 2, record.get("documentsPruned").asInt());
+            assertEquals("Should create a placeholder for each referenced document", 2, record.get("placeholdersCreated").asInt());
+            assertEquals("The references should point at the placeholders", 2,
+                    session.run("MATCH (:Document {ref_name: 'AR 1'})-[r:REFERENCES_UKN]->(u:UKN_Document) WHERE u.ref_name IN ['AR 2', 'AR 3'] RETURN count(r) AS c")
+                            .single().get("c").asInt());
+        }
+    }
+
+    @Test
+    public void shouldRepointReferencesToTheDocumentsThatKeepTheRefName() {
+        String reissuedGraph = revokedGraph + "CREATE (:Document {doc_id: 'AR 2.pdf_1', ref_name: 'AR 2', is_revoked_b: false})";
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(PruneRevokedDocuments.class).withFixture(reissuedGraph).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            Record record = session.run("CALL policy.pruneRevokedDocuments(10, 'placeholder')").single();
+            assertEquals("Should only create a placeholder for the document without a reissue", 1, record.get("placeholdersCreated").asInt());
+            assertEquals("Should re-point the reference to the reissued document", 1, record.get("referencesRepointed").asInt());
+            assertEquals("The citation should point at the reissued document", "AR 2.pdf_1",
+                    session.run("MATCH (:Document {ref_name: 'AR 1'})-[:REFERENCES]->(d:Document) RETURN d.doc_id AS id").single().get("id").asString());
+        }
+    }
+
+    @Test
+    public void shouldFindReissuesAndPlaceholdersByRefKey() {
+        String variantGraph =
+                "CREATE (a:Document {doc_id: 'AR 1.pdf_0', ref_name: 'AR 1', ref_key: 'AR 1', is_revoked_b: false})" +
+                "CREATE (b:Document {doc_id: 'AR 2.pdf_0', ref_name: 'AR 2', ref_key: 'AR 2', is_revoked_b: true})" +
+                "CREATE (c:Document {doc_id: 'AR 3.pdf_0', ref_name: 'AR 3', ref_key: 'AR 3', is_revoked_b: true})" +
+                "CREATE (:Document {doc_id: 'ar 2.pdf_1', ref_name: 'ar  2', ref_key: 'AR 2', is_revoked_b: false})" +
+                "CREATE (:UKN_Document {doc_id: 'UKN Document: ar 3', ref_name: 'ar 3', ref_key: 'AR 3'})" +
+                "CREATE (a)-[:REFERENCES]->(b), (a)-[:REFERENCES]->(c)";
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(PruneRevokedDocuments.class).withFixture(variantGraph).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            Record record = session.run("CALL policy.pruneRevokedDocuments(10, 'placeholder')").single();
+            assertEquals("Should re-point the reference to the reissue stored under a variant ref_name", 1, record.get("referencesRepointed").asInt());
+            assertEquals("Should reuse the placeholder of the variant ref_name", 0, record.get("placeholdersCreated").asInt());
+            assertEquals("The citation should point at the reissue", "ar 2.pdf_1",
+                    session.run("MATCH (:Document {ref_name: 'AR 1'})-[:REFERENCES]->(d:Document) RETURN d.doc_id AS id").single().get("id").asString());
+            assertEquals("The citation should point at the existing placeholder", "UKN Document: ar 3",
+                    session.run("MATCH (:Document {ref_name: 'AR 1'})-[:REFERENCES_UKN]->(u:UKN_Document) RETURN u.doc_id AS id").single().get("id").asString());
+        }
+    }
+
+    @Test
+    public void shouldRejectAnUnknownMode() {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(PruneRevokedDocuments.class).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            assertThrows(ClientException.class, () -> session.run("CALL policy.pruneRevokedDocuments(10, 'archive')").consume());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package policy.projection;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.*;
+import org.neo4j.driver.Record;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ProjectGraphTest {
+
+    private static final Config driverConfig = Config.builder().withoutEncryption().build();
+    private Neo4j embeddedDatabaseServer;
+    private Driver driver;
+
+    // The Person node, the SIMILAR_TO relationship and the relationships to and from the Person are not projected
+    private static final String policyGraph =
+            "CREATE (a:Document {doc_id: 'A'}), (b:Document {doc_id: 'B'}), (c:Document {doc_id: 'C'}), (u:UKN_Document {doc_id: 'U'})" +
+            "CREATE (t1:Topic {name: 'award'}), (t2:Topic {name: 'heroism'}), (e:Entity {name: 'Army Band'}), (p:Person {name: 'Reviewer'})" +
+            "CREATE (a)-[:CONTAINS]->(t1), (a)-[:CONTAINS]->(t2), (b)-[:CONTAINS]->(t1), (c)-[:CONTAINS]->(t1)" +
+            "CREATE (a)-[:MENTIONS]->(e), (b)-[:MENTIONS]->(e)" +
+            "CREATE (a)-[:REFERENCES]->(b), (c)-[:REFERENCES]->(a), (b)-[:REFERENCES_UKN]->(u)" +
+            "CREATE (a)-[:SIMILAR_TO]->(b), (p)-[:MENTIONS]->(e), (a)-[:MENTIONS]->(p)";
+
+    @BeforeAll
+    void initializeNeo4j() {
+        this.embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
+                .withProcedure(ProjectGraph.class)
+                .withFixture(policyGraph)
+                .build();
+        this.driver = GraphDatabase.driver(embeddedDatabaseServer.boltURI(), driverConfig);
+    }
+
+    @AfterAll
+    void closeDriver() {
+        this.driver.close();
+        this.embeddedDatabaseServer.close();
+    }
+
+    private GraphProjection projection() {
+        return GraphProjection.forDatabase(embeddedDatabaseServer.defaultDatabaseService().databaseName());
+    }
+
+    private int topicDegree(Session session, String name) {
+        long nodeId = session.run("MATCH (t:Topic {name: $name}) RETURN id(t) AS id", Values.parameters("name", name)).single().get("id").asLong();
+        return projection().degree("CONTAINS", Direction.INCOMING, projection().index(nodeId));
+    }
+
+    @Test
+    public void shouldBuildProjectionOfPolicyLabelsAndTypes() {
+        try(Session session = driver.session()) {
+            Record stats = session.run("CALL policy.buildProjection()").single();
+
+            assertTrue("Should be built", stats.get("built").asBoolean());
+            assertEquals("Should project the policy nodes", 7, stats.get("nodes").asLong());
+            assertEquals("Should project the policy relationships", 9, stats.get("relationships").asLong());
+            assertEquals("Should count documents", 3, stats.get("nodesByLabel").get("Document").asLong());
+            assertEquals("Should count CONTAINS", 4, stats.get("relationshipsByType").get("CONTAINS").asLong());
+            assertEquals("Should count REFERENCES_UKN", 1, stats.get("relationshipsByType").get("REFERENCES_UKN").asLong());
+            assertTrue("Should allocate off heap", stats.get("offHeapBytes").asLong() > 0);
+
+            assertEquals("Should read incoming rows", 3, topicDegree(session, "award"));
+            long personId = session.run("MATCH (p:Person) RETURN id(p) AS id").single().get("id").asLong();
+            assertEquals("Should not project other labels", -1, projection().index(personId));
+        }
+    }
+
+    @Test
+    public void shouldRefreshProjectionFromCommittedTransactions() {
+        try(Session session = driver.session()) {
+            session.run("CALL policy.buildProjection()").consume();
+
+            session.run("MATCH (t:Topic {name: 'award'}) CREATE (:Document {doc_id: 'D'})-[:CONTAINS]->(t)").consume();
+            session.run("MATCH (:Document {doc_id: 'A'})-[r:CONTAINS]->(:Topic {name: 'heroism'}) DELETE r").consume();
+
+            Record stats = session.run("CALL policy.projectionStats()").single();
+            assertEquals("Should add the new document", 8, stats.get("nodes").asLong());
+            assertEquals("Should hold the new document in the overlay", 1, stats.get("overlayNodes").asLong());
+            assertEquals("Should hold the new relationship in the overlay", 1, stats.get("overlayRelationships").asLong());
+            assertEquals("Should mask the deleted relationship", 1, stats.get("removedRelationships").asLong());
+            assertEquals("Should keep the relationship count", 9, stats.get("relationships").asLong());
+            assertEquals("Should see the new relationship", 4, topicDegree(session, "award"));
+            assertEquals("Should not see the deleted relationship", 0, topicDegree(session, "heroism"));
+
+            // Undo both changes, the overlay should go back to empty
+            session.run("MATCH (d:Document {doc_id: 'D'}) DETACH DELETE d").consume();
+            session.run("MATCH (a:Document {doc_id: 'A'}), (t:Topic {name: 'heroism'}) CREATE (a)-[:CONTAINS]->(t)").consume();
+
+            stats = session.run("CALL policy.projectionStats()").single();
+            assertEquals("Should remove the deleted document", 7, stats.get("nodes").asLong());
+            assertEquals("Should drop the deleted relationship from the overlay", 0, stats.get("overlayRelationships").asLong());
+            assertEquals("Should unmask the recreated relationship", 0, stats.get("removedRelationships").asLong());
+            assertEquals("Should see the base rows again", 3, topicDegree(session, "award"));
+            assertEquals("Should see the recreated relationship", 1, topicDegree(session, "heroism"));
+
+            stats = session.run("CALL policy.buildProjection()").single();
+            assertEquals("Rebuilding should empty the overlay", 0, stats.get("overlayNodes").asLong());
+            assertEquals("Rebuilding should keep the relationships", 9, stats.get("relationships").asLong());
+        }
+    }
+
+    @Test
+    public void shouldDropProjection() {
+        try(Session session = driver.session()) {
+            session.run("CALL policy.buildProjection()").consume();
+            GraphProjection built = projection();
+
+            Record dropped = session.run("CALL policy.dropProjection()").single();
+            assertTrue("Should return the dropped projection", dropped.get("built").asBoolean());
+            assertNull("Should unregister the projection", projection());
+            assertThrows(IllegalStateException.class, built::nodeCount);
+
+            Record stats = session.run("CALL policy.projectionStats()").single();
+            assertFalse("Should not be built", stats.get("built").asBoolean());
+            assertEquals("Should hold no memory", 0, stats.get("offHeapBytes").asLong());
+            assertFalse("Dropping twice should do nothing", session.run("CALL policy.dropProjection()").single().get("built").asBoolean());
+        }
+    }
+
+    @Test
+    public void shouldWaitForCommitsInFlightBeforeBuilding() throws Exception {
+        GraphProjection.RefreshListener listener = new GraphProjection.RefreshListener();
+        // A transaction passes beforeCommit while there is nothing to refresh, so it collects nothing
+        assertNull("Should not collect changes without a projection", listener.beforeCommit(null, null, null));
+
+        CompletableFuture<GraphProjection> build = CompletableFuture.supplyAsync(() -> {
+            try (Transaction tx = embeddedDatabaseServer.defaultDatabaseService().beginTx()) {
+                return listener.build(tx);
+            }
+        });
+        Thread.sleep(500);
+        assertFalse("The build should wait for the transaction to commit", build.isDone());
+
+        listener.afterCommit(null, null, null);
+        GraphProjection built = build.get(30, TimeUnit.SECONDS);
+        assertEquals("Should build once the transaction committed", 7, built.stats().nodes.longValue());
+        assertTrue("Should release the projection", listener.drop());
+    }
+}
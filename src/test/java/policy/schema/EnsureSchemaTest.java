@@ -0,0 +1,82 @@
+package policy.schema;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.*;
+import org.neo4j.driver.Record;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+import org.neo4j.logging.Log;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class EnsureSchemaTest {
+
+    private static final Config driverConfig = Config.builder().withoutEncryption().build();
+    private Neo4j embeddedDatabaseServer;
+
+    @BeforeAll
+    void initializeNeo4j() {
+        this.embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
+                .withProcedure(EnsureSchema.class)
+                .build();
+    }
+
+    @AfterAll
+    void closeNeo4j() {
+        this.embeddedDatabaseServer.close();
+    }
+
+    @Test
+    public void shouldCreateMissingSchemaOnlyOnce() {
+        try(Driver driver = GraphDatabase.driver(this.embeddedDatabaseServer.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            List<Record> created = session.run("CALL policy.ensureSchema()").list();
+            assertEquals("Should report every constraint and index", PolicySchema.INDEXES.size(), created.size());
+            for (Record record : created) {
+                assertTrue("Everything should be missing on an empty database", record.get("missing").asBoolean());
+                assertEquals("Everything should be created", "CREATED", record.get("status").asString());
+            }
+
+            List<Record> existing = session.run("CALL policy.ensureSchema()").list();
+            for (Record record : existing) {
+                assertEquals("Nothing should be missing the second time", false, record.get("missing").asBoolean());
+                assertEquals("Everything should already exist", "EXISTS", record.get("status").asString());
+            }
+
+            try (org.neo4j.graphdb.Transaction tx = this.embeddedDatabaseServer.defaultDatabaseService().beginTx()) {
+                assertTrue("The ingest should not see missing indexes", PolicySchema.missingIndexes(tx).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void shouldWarnAboutMissingSchemaOncePerCheck() {
+        try (Neo4j server = Neo4jBuilders.newInProcessBuilder().build()) {
+            org.neo4j.graphdb.GraphDatabaseService db = server.defaultDatabaseService();
+            AtomicInteger warnings = new AtomicInteger();
+            Log log = (Log) Proxy.newProxyInstance(Log.class.getClassLoader(), new Class<?>[]{Log.class}, (proxy, method, args) -> {
+                if (method.getName().equals("warn")) warnings.incrementAndGet();
+                return method.getReturnType() == boolean.class ? false : null;
+            });
+
+            PolicySchema.resetIngestSchemaCheck(db);
+            for (int i = 0; i < 3; i++) {
+                PolicySchema.checkIngestSchema(db, log);
+            }
+            assertEquals("Repeated checks should only warn once", 1, warnings.get());
+
+            PolicySchema.resetIngestSchemaCheck(db);
+            PolicySchema.checkIngestSchema(db, log);
+            assertEquals("A reset should read the schema again", 2, warnings.get());
+            PolicySchema.resetIngestSchemaCheck(db);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package policy.schema;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.*;
+import org.neo4j.driver.Record;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class MigrateGraphTest {
+
+    private static final Config driverConfig = Config.builder().withoutEncryption().build();
+
+    @Test
+    public void shouldRemoveTopicIsInRelationshipsInChunks() {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(MigrateGraph.class).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            session.run("CREATE (t:Topic {name: 'award'}) WITH t UNWIND range(1, 5) AS i " +
+                    "CREATE (d:Document {doc_id: 'AR ' + i + '.pdf_0'}), (d)-[:CONTAINS {relevancy: i}]->(t), (t)-[:IS_IN {relevancy: i}]->(d)").consume();
+
+            List<Record> chunks = session.run("CALL policy.removeTopicIsInRelationships(2)").list();
+            assertEquals("Should delete 2, 2 and then 1 relationships", 3, chunks.size());
+            assertEquals("The last chunk should have the remaining relationship", 1, chunks.get(2).get("relationshipsDeleted").asInt());
+            assertEquals("No IS_IN relationships should be left", 0,
+                    session.run("MATCH ()-[r:IS_IN]->() RETURN count(r) AS c").single().get("c").asInt());
+            assertEquals("The CONTAINS relationships should be kept", 5,
+                    session.run("MATCH ()-[r:CONTAINS]->() RETURN count(r) AS c").single().get("c").asInt());
+            assertEquals("A second run should have nothing to remove", 0, session.run("CALL policy.removeTopicIsInRelationships()").list().size());
+        }
+    }
+
+    @Test
+    public void shouldBackfillRefKeysInChunks() {
+        try(Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withProcedure(MigrateGraph.class).build();
+            Driver driver = GraphDatabase.driver(neo4j.boltURI(), driverConfig);
+            Session session = driver.session()) {
+
+            session.run("UNWIND range(1, 5) AS i CREATE (:Document {doc_id: 'AR 1-' + i + '.pdf_0', ref_name: 'AR 1-' + i})").consume();
+            session.run("CREATE (:UKN_Document {doc_id: 'UKN Document: AR 2-1', ref_name: 'AR 2-1'}), (:Document {doc_id: 'AR 3.pdf_0', ref_name: 'AR 3', ref_key: 'AR 3'}), " +
+                    "(:Document {doc_id: 'AR 4-1.pdf_0', ref_name: 'AR 4-1', ref_key: 'AR41'})").consume();
+
+            List<Record> backfills = session.run("CALL policy.backfillRefKeys(2)").list();
+            assertEquals("Should update the documents without a ref_key or with an outdated one", 6, backfills.get(0).get("nodesUpdated").asInt());
+            assertEquals("Should update the placeholders without a ref_key", 1, backfills.get(1).get("nodesUpdated").asInt());
+            assertEquals("Should store the normalized key", "AR 1-2",
+                    session.run("MATCH (d:Document {ref_name: 'AR 1-2'}) RETURN d.ref_key AS k").single().get("k").asString());
+            assertEquals("A second run should have nothing to update", 0,
+                    session.run("CALL policy.backfillRefKeys()").list().get(0).get("nodesUpdated").asInt());
+        }
+    }
+}
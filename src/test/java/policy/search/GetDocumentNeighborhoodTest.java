@@ -0,0 +1,106 @@
+package policy.search;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.*;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.exceptions.ClientException;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+import policy.utils.Util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class GetDocumentNeighborhoodTest {
+
+    private static final Config driverConfig = Config.builder().withoutEncryption().build();
+    private Neo4j embeddedDatabaseServer;
+    private Driver driver;
+
+    // A references B, both mention the hub entity that every other document mentions too, B contains a topic
+    // that only C also contains
+    private static final String neighborhoodGraph =
+            "CREATE (a:Document {doc_id: 'A'}), (b:Document {doc_id: 'B'}), (c:Document {doc_id: 'C'})" +
+            "CREATE (hub:Entity {name: 'Department of Defense'}), (t:Topic {name: 'award'})" +
+            "CREATE (a)-[:REFERENCES]->(b), (a)-[:REFERENCES]->(a), (a)-[:MENTIONS]->(hub), (b)-[:MENTIONS]->(hub)" +
+            "CREATE (b)-[:CONTAINS]->(t), (c)-[:CONTAINS]->(t)" +
+            "WITH hub UNWIND range(1, 50) AS i CREATE (:Document {doc_id: 'D' + i})-[:MENTIONS]->(hub)";
+
+    @BeforeAll
+    void initializeNeo4j() {
+        this.embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
+                .withProcedure(GetDocumentNeighborhood.class)
+                .withFixture(neighborhoodGraph)
+                .build();
+        this.driver = GraphDatabase.driver(embeddedDatabaseServer.boltURI(), driverConfig);
+    }
+
+    @AfterAll
+    void closeDriver() {
+        this.driver.close();
+        this.embeddedDatabaseServer.close();
+    }
+
+    private List<String> names(Record record) {
+        return record.get("nodes").asList(value -> value.asNode().get("doc_id").asString(value.asNode().get("name").asString()))
+                .stream().sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    public void shouldExpandOneHopFromTheDocument() {
+        try(Session session = driver.session()) {
+            Record record = session.run("CALL policy.getDocumentNeighborhood('A', 1)").single();
+
+            assertEquals("Should find the document, its reference and its entity", List.of("A", "B", "Department of Defense"), names(record));
+            assertEquals("Should return the relationship to each neighbor", 2, record.get("relationships").asList().size());
+        }
+    }
+
+    @Test
+    public void shouldNotExpandHubs() {
+        try(Session session = driver.session()) {
+            Record record = session.run("CALL policy.getDocumentNeighborhood('A', 3, $limits)", Util.map("limits", Map.of("maxDegree", 10))).single();
+
+            List<String> names = names(record);
+            assertEquals("Should reach C through B's topic but not the documents of the hub", List.of("A", "B", "C", "Department of Defense", "award"), names);
+        }
+    }
+
+    @Test
+    public void shouldCapTheFanOutPerHop() {
+        try(Session session = driver.session()) {
+            Record record = session.run("CALL policy.getDocumentNeighborhood('A', 2, $limits)",
+                    Util.map("limits", Map.of("fanOut", List.of(10, 5)))).single();
+
+            List<String> names = names(record);
+            assertTrue("Should expand the hub", names.stream().anyMatch(name -> name.startsWith("D")));
+            assertTrue("Each second hop node should add at most 5 nodes", names.size() <= 3 + 2 * 5);
+        }
+    }
+
+    @Test
+    public void shouldStopAtMaxNodes() {
+        try(Session session = driver.session()) {
+            Record record = session.run("CALL policy.getDocumentNeighborhood('A', 5, $limits)", Util.map("limits", Map.of("maxNodes", 4))).single();
+
+            assertEquals("Should return only maxNodes nodes", 4, record.get("nodes").asList().size());
+            assertEquals("Each node other than the start should come with its relationship", 3, record.get("relationships").asList().size());
+        }
+    }
+
+    @Test
+    public void shouldReturnNothingForAnUnknownDocumentAndRejectUnknownLimits() {
+        try(Session session = driver.session()) {
+            Record record = session.run("CALL policy.getDocumentNeighborhood('missing')").single();
+
+            assertTrue("Should not return any nodes", record.get("nodes").asList().isEmpty());
+            assertThrows(ClientException.class, () -> session.run("CALL policy.getDocumentNeighborhood('A', 1, {fanout: 1})").consume());
+        }
+    }
+}
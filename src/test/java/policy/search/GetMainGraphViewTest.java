@@ -57,4 +57,91 @@ public class GetMainGraphViewTest {
             assertEquals("The outgoing should match the expected relationships found", 4, record.get("relationships").asList().size());
         }
     }
+
+    @Test
+    public void shouldReturnSharedEntitiesAndTopicsOnce() {
+        try(Session session = driver.session()) {
+            session.run("CREATE (a:Document {doc_id: 'Dedupe A.pdf_0'}), (b:Document {doc_id: 'Dedupe B.pdf_0'}), " +
+                    "(e:Entity {name: 'Shared Entity'}), (t:Topic {name: 'shared topic'}), " +
+                    "(a)-[:MENTIONS {count: 1}]->(e), (b)-[:MENTIONS {count: 2}]->(e), " +
+                    "(a)-[:CONTAINS {relevancy: 0}]->(t), (b)-[:CONTAINS {relevancy: 1}]->(t)").consume();
+
+            List<String> docIds = asList("Dedupe A.pdf_0", "Dedupe B.pdf_0", "Dedupe A.pdf_0", "Missing.pdf_0");
+
+            org.neo4j.driver.Record record = session.run("CALL policy.getMainGraphView($docIds) YIELD nodes, relationships RETURN nodes, relationships", Util.map("docIds", docIds)).single();
+
+            assertEquals("The shared entity and topic should only be returned once", 4, record.get("nodes").asList().size());
+            assertEquals("Every mention and topic relationship should be returned", 4, record.get("relationships").asList().size());
+        }
+    }
+
+    @Test
+    public void shouldStreamGraphViewInPages() {
+        try(Session session = driver.session()) {
+            List<String> docIds = asList("AGO 1976-02.pdf_0", "Test 1.pdf_0");
+
+            List<org.neo4j.driver.Record> all = session.run("CALL policy.getMainGraphViewStream($docIds)", Util.map("docIds", docIds)).list();
+            long nodes = all.stream().filter(record -> !record.get("node").isNull()).count();
+            assertEquals("Should stream the same nodes as the main graph view", 4, nodes);
+            assertEquals("Should stream the same relationships as the main graph view", 4, all.size() - nodes);
+
+            List<org.neo4j.driver.Record> page = session.run("CALL policy.getMainGraphViewStream($docIds, 2, 3)", Util.map("docIds", docIds)).list();
+            assertEquals("Should only return the requested page", 3, page.size());
+            for (int i = 0; i < page.size(); i++) {
+                assertEquals("The page should match the full stream", all.get(i + 2).get("node").isNull(), page.get(i).get("node").isNull());
+            }
+        }
+    }
+
+    @Test
+    public void shouldCacheGraphViewUntilDocumentsChange() {
+        try(Session session = driver.session()) {
+            session.run("CREATE (a:Document {doc_id: 'Cache A.pdf_0'}), (e:Entity {name: 'Cache Entity'}), (a)-[:MENTIONS {count: 1}]->(e)").consume();
+            session.run("CALL policy.graphViewCacheStats(true)").consume();
+
+            String query = "CALL policy.getMainGraphView($docIds) YIELD nodes, relationships RETURN size(nodes) AS nodes, size(relationships) AS relationships";
+            List<String> docIds = asList("Cache A.pdf_0", "Cache B.pdf_0");
+
+            org.neo4j.driver.Record first = session.run(query, Util.map("docIds", docIds)).single();
+            org.neo4j.driver.Record second = session.run(query, Util.map("docIds", asList("Cache B.pdf_0", "Cache A.pdf_0", "Cache A.pdf_0"))).single();
+            assertEquals("The cached view should match the traversal", first.get("nodes").asInt(), second.get("nodes").asInt());
+
+            org.neo4j.driver.Record stats = session.run("CALL policy.graphViewCacheStats()").single();
+            assertEquals("The cache should be enabled", true, stats.get("enabled").asBoolean());
+            assertEquals("The reordered doc_ids should hit the cache", 1, stats.get("hits").asLong());
+            assertEquals("Only the first call should miss", 1, stats.get("misses").asLong());
+
+            // A new Document with a requested doc_id evicts the entry
+            session.run("MATCH (e:Entity {name: 'Cache Entity'}) CREATE (b:Document {doc_id: 'Cache B.pdf_0'})-[:MENTIONS {count: 1}]->(e)").consume();
+            org.neo4j.driver.Record third = session.run(query, Util.map("docIds", docIds)).single();
+            assertEquals("The new document should be returned after the eviction", 3, third.get("nodes").asInt());
+            assertEquals("The new mention should be returned after the eviction", 2, third.get("relationships").asInt());
+
+            // An unrelated change leaves the entry in place
+            session.run("CREATE (:Document {doc_id: 'Unrelated.pdf_0'})").consume();
+            session.run(query, Util.map("docIds", docIds)).consume();
+
+            stats = session.run("CALL policy.graphViewCacheStats()").single();
+            assertEquals("Only the touched entry should be invalidated", 1, stats.get("invalidations").asLong());
+            assertEquals("The unrelated change should not evict the entry", 2, stats.get("hits").asLong());
+        }
+    }
+
+    @Test
+    public void shouldSkipTheCacheForNullDocIds() {
+        try(Session session = driver.session()) {
+            String query = "CALL policy.getMainGraphView($docIds) YIELD nodes RETURN size(nodes) AS nodes";
+            int expected = session.run(query, Util.map("docIds", asList("AGO 1976-02.pdf_0"))).single().get("nodes").asInt();
+            session.run("CALL policy.graphViewCacheStats(true)").consume();
+
+            List<String> docIds = asList("AGO 1976-02.pdf_0", null);
+            org.neo4j.driver.Record record = session.run(query, Util.map("docIds", docIds)).single();
+            assertEquals("Should return the graph of the doc_ids that aren't null", expected, record.get("nodes").asInt());
+            session.run(query, Util.map("docIds", docIds)).consume();
+
+            org.neo4j.driver.Record stats = session.run("CALL policy.graphViewCacheStats()").single();
+            assertEquals("Nothing should be cached", 0, stats.get("size").asLong());
+            assertEquals("The cache should not be read", 0, stats.get("hits").asLong() + stats.get("misses").asLong());
+        }
+    }
 }
@@ -0,0 +1,96 @@
+package policy.search;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.*;
+import org.neo4j.driver.Record;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class SimilarDocumentsTest {
+
+    private static final Config driverConfig = Config.builder().withoutEncryption().build();
+    private Neo4j embeddedDatabaseServer;
+    private Driver driver;
+
+    // B shares both topics and the rare entity with A, C shares one topic, every document mentions the hub.
+    // relevancy is the topic's position in the document as the ingest writes it, 0 for the most relevant
+    private static final String similarityGraph =
+            "CREATE (a:Document {doc_id: 'A'}), (b:Document {doc_id: 'B'}), (c:Document {doc_id: 'C'}), (d:Document {doc_id: 'D'})" +
+            "CREATE (t1:Topic {name: 'award'}), (t2:Topic {name: 'heroism'}), (rare:Entity {name: 'Army Band'}), (hub:Entity {name: 'Department of Defense'})" +
+            "CREATE (a)-[:CONTAINS {relevancy: 0}]->(t1), (a)-[:CONTAINS {relevancy: 1}]->(t2), (a)-[:MENTIONS {count: 4}]->(rare)" +
+            "CREATE (b)-[:CONTAINS {relevancy: 0}]->(t1), (b)-[:CONTAINS {relevancy: 1}]->(t2), (b)-[:MENTIONS {count: 2}]->(rare)" +
+            "CREATE (c)-[:CONTAINS {relevancy: 2}]->(t1)" +
+            "CREATE (a)-[:MENTIONS {count: 1}]->(hub), (b)-[:MENTIONS {count: 1}]->(hub), (c)-[:MENTIONS {count: 1}]->(hub), (d)-[:MENTIONS {count: 1}]->(hub)" +
+            "WITH hub UNWIND range(1, 20) AS i CREATE (:Document {doc_id: 'H' + i})-[:MENTIONS {count: 1}]->(hub)";
+
+    @BeforeAll
+    void initializeNeo4j() {
+        this.embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
+                .withProcedure(SimilarDocuments.class)
+                .withFixture(similarityGraph)
+                .build();
+        this.driver = GraphDatabase.driver(embeddedDatabaseServer.boltURI(), driverConfig);
+    }
+
+    @AfterAll
+    void closeDriver() {
+        this.driver.close();
+        this.embeddedDatabaseServer.close();
+    }
+
+    private List<String> docIds(List<Record> records) {
+        return records.stream().map(record -> record.get("docId").asString()).collect(Collectors.toList());
+    }
+
+    @Test
+    public void shouldRankDocumentsByWeightedOverlap() {
+        try(Session session = driver.session()) {
+            List<Record> similar = session.run("CALL policy.similarDocuments('A', 3)").list();
+
+            assertEquals("Should return the k best", 3, similar.size());
+            assertEquals("B shares the most with A", "B", similar.get(0).get("docId").asString());
+            assertEquals("C shares a topic with A", "C", similar.get(1).get("docId").asString());
+            assertTrue("Scores should be in descending order", similar.get(1).get("score").asDouble() >= similar.get(2).get("score").asDouble());
+            assertEquals("D ties with every H document through the hub and has the lowest node id", "D", similar.get(2).get("docId").asString());
+            assertTrue("Should not return the document itself", !docIds(similar).contains("A"));
+        }
+    }
+
+    @Test
+    public void shouldSkipHubsAboveMaxDegree() {
+        try(Session session = driver.session()) {
+            List<Record> similar = session.run("CALL policy.similarDocuments('A', 10, 10)").list();
+
+            assertEquals("Only the documents sharing a topic or the rare entity should be scored", List.of("B", "C"), docIds(similar));
+            assertTrue("A document with only the hub in common should have nothing in common",
+                    session.run("CALL policy.similarDocuments('D', 10, 10)").list().isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldReturnNothingForAnUnknownDocument() {
+        try(Session session = driver.session()) {
+            assertTrue("Should not return any documents", session.run("CALL policy.similarDocuments('missing')").list().isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldWeightTheMostRelevantTopicHighest() {
+        try(Session session = driver.session()) {
+            session.run("CREATE (x:Document {doc_id: 'X'}), (first:Document {doc_id: 'First'}), (later:Document {doc_id: 'Later'})," +
+                    "(t1:Topic {name: 'x1'}), (t2:Topic {name: 'x2'})," +
+                    "(x)-[:CONTAINS {relevancy: 0}]->(t1), (x)-[:CONTAINS {relevancy: 1}]->(t2)," +
+                    "(first)-[:CONTAINS {relevancy: 0}]->(t1), (later)-[:CONTAINS {relevancy: 0}]->(t2)").consume();
+
+            List<Record> similar = session.run("CALL policy.similarDocuments('X')").list();
+            assertEquals("Sharing the most relevant topic should rank first", List.of("First", "Later"), docIds(similar));
+        }
+    }
+}
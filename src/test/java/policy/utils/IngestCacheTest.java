@@ -0,0 +1,73 @@
+package policy.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.junit.rule.Neo4jRule;
+
+import static org.junit.Assert.*;
+
+public class IngestCacheTest {
+
+    @Rule
+    public Neo4jRule neo4j = new Neo4jRule();
+
+    @Test
+    public void shouldResolveNodesCreatedDuringTheBatch() {
+        IngestCache cache = new IngestCache();
+        Label topic = Label.label("Topic");
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+            assertNull("Should not find a node that does not exist", cache.findNode(tx, topic, "award"));
+
+            Node node = tx.createNode(topic);
+            node.setProperty("name", "award");
+            cache.putNode(topic, "award", node);
+
+            assertEquals("Should resolve the node created mid batch", node, cache.findNode(tx, topic, "award"));
+            assertNull("Should not resolve the name under another label", cache.findNode(tx, Label.label("Entity"), "award"));
+            tx.commit();
+        }
+    }
+
+    @Test
+    public void shouldFallBackToTheLookupWhenACachedNodeIsRemoved() {
+        IngestCache cache = new IngestCache();
+        Label entity = Label.label("Entity");
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+            Node node = tx.createNode(entity);
+            node.setProperty("name", "United States Army");
+            assertEquals("Should find the existing node", node, cache.findNode(tx, entity, "United States Army"));
+
+            node.delete();
+            assertNull("Should not return the removed node", cache.findNode(tx, entity, "United States Army"));
+            tx.commit();
+        }
+    }
+
+    @Test
+    public void shouldKeepNodeIdsButForgetRelationshipsAfterTheTransaction() {
+        IngestCache cache = new IngestCache();
+        Label topic = Label.label("Topic");
+        RelationshipType contains = RelationshipType.withName("CONTAINS");
+        Node document;
+        Node node;
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+            document = tx.createNode(Label.label("Document"));
+            node = tx.createNode(topic);
+            node.setProperty("name", "award");
+            cache.putNode(topic, "award", node);
+            cache.putRelationship(document, node, contains);
+            tx.commit();
+        }
+        cache.endTransaction();
+
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+            assertFalse("Should forget the committed relationships", cache.hasRelationship(document, node, contains));
+            assertEquals("Should still resolve the node", node, cache.findNode(tx, topic, "award"));
+            tx.commit();
+        }
+    }
+}
@@ -1,16 +1,30 @@
 package policy.utils;
 
+import org.junit.Rule;
 import org.junit.Test;
 import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.harness.junit.rule.Neo4jRule;
+import org.neo4j.logging.NullLog;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class UtilTest {
 
+    @Rule
+    public Neo4jRule neo4j = new Neo4jRule();
+
     @Test
     public void shouldCreateSingleLabel() {
         Label[] test = new Label[]{Label.label("Test")};
@@ -26,4 +40,48 @@ public class UtilTest {
         Label[] actual = Util.labels(labels);
         assertEquals("Should only be two labels and it should match", test, actual);
     }
+
+    @Test
+    public void shouldNormalizeReferenceVariantsToTheSameKey() {
+        assertEquals("Should upper case and keep single spaces and dashes", "AR 672-5-1", Util.refKey("ar 672-5-1"));
+        assertEquals("Should ignore case, extra whitespace and en dashes", Util.refKey("AR 672-51"), Util.refKey(" ar  672\u201351"));
+        assertNotEquals("Should tell citations apart by where the dash falls", Util.refKey("DoDI 1-23"), Util.refKey("DoDI 12-3"));
+        assertNotEquals("Should keep the second dash", Util.refKey("AR 672-5-1"), Util.refKey("AR 672-51"));
+        assertNull("Should keep a missing reference missing", Util.refKey(null));
+    }
+
+    @Test
+    public void shouldFindExistingRelationshipsFromEitherEndpoint() {
+        RelationshipType isIn = RelationshipType.withName("IS_IN");
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+            Node topic = tx.createNode(Label.label("Topic"));
+            Node document = tx.createNode(Label.label("Document"));
+            Node other = tx.createNode(Label.label("Document"));
+            for (int i = 0; i < 10; i++) {
+                topic.createRelationshipTo(tx.createNode(Label.label("Document")), isIn);
+            }
+            topic.createRelationshipTo(document, isIn);
+
+            assertTrue("Should find the relationship scanning from the smaller endpoint", Util.checkNodeRelationshipExists(topic, document, isIn, NullLog.getInstance()));
+            assertFalse("Should not find a relationship that doesn't exist", Util.checkNodeRelationshipExists(topic, other, isIn, NullLog.getInstance()));
+            assertFalse("Should respect the direction", Util.checkNodeRelationshipExists(document, topic, isIn, NullLog.getInstance()));
+            tx.rollback();
+        }
+    }
+
+    @Test
+    public void shouldNotCreateRelationshipsAlreadySeenInTheBatch() {
+        RelationshipType mentions = RelationshipType.withName("MENTIONS");
+        IngestCache cache = new IngestCache();
+        try (Transaction tx = neo4j.defaultDatabaseService().beginTx()) {
+            Node document = tx.createNode(Label.label("Document"));
+            Node entity = tx.createNode(Label.label("Entity"));
+
+            assertNotNull("Should create the first relationship", Util.createNonDuplicateRelationship(document, entity, mentions, cache, NullLog.getInstance()));
+            assertTrue("Should remember the relationship for the batch", cache.hasRelationship(document, entity, mentions));
+            assertNull("Should not create a duplicate", Util.createNonDuplicateRelationship(document, entity, mentions, cache, NullLog.getInstance()));
+            assertEquals("Should only have one relationship", 1, document.getDegree(mentions));
+            tx.rollback();
+        }
+    }
 }